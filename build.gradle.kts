@@ -1,5 +1,6 @@
 plugins {
     java
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "uk.tojoco.villagerlink"
@@ -12,6 +13,8 @@ repositories {
 
 dependencies {
     compileOnly("io.papermc.paper:paper-api:1.21.1-R0.1-SNAPSHOT")
+    // Benchmarks run on stand-ins, but still need the API classes on their classpath
+    jmhImplementation("io.papermc.paper:paper-api:1.21.1-R0.1-SNAPSHOT")
 }
 
 java {
@@ -25,3 +28,13 @@ tasks.processResources {
         expand("version" to project.version)
     }
 }
+
+// ./gradlew jmh  -> build/results/jmh/results.json (ns/op plus gc.alloc.rate from the gc profiler)
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
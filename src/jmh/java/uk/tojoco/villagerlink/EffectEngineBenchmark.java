@@ -0,0 +1,52 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.Sound;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A burst of POI highlights (e.g. a hall re-linking after a restart) followed by every
+ * engine tick until they expire, delivered to a handful of players spread around the
+ * area. ns/op is per burst.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EffectEngineBenchmark {
+
+    @Param({ "100", "1000", "5000" })
+    public int burst;
+
+    @Param({ "256" })
+    public int maxConcurrent;
+
+    private EffectEngine engine;
+    private Location[] pois;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Schedulers schedulers = new Schedulers(null);
+        ParticleDelivery delivery = new ParticleDelivery(schedulers, new WatchService(schedulers));
+        delivery.configure(48, 16, 3, 40, false);
+        engine = new EffectEngine(schedulers, delivery);
+        EffectEngine.Style style = new EffectEngine.Style(Particle.ENCHANT, 40, 0.3, 0.5, 0.3, 0.0,
+                60, 5, Sound.BLOCK_BEACON_ACTIVATE, 0.6f, 1.0f);
+        engine.configure(style, style, maxConcurrent);
+        pois = new Location[burst];
+        for (int i = 0; i < burst; i++) pois[i] = new Location(Fakes.OVERWORLD, i, 64, i % 7);
+    }
+
+    @Benchmark
+    public int burstThenDrain() {
+        for (Location poi : pois) engine.highlightPoi(poi);
+        int ticks = 0;
+        while (engine.active() > 0) {
+            engine.tick();
+            ticks++;
+        }
+        return ticks;
+    }
+}
@@ -0,0 +1,44 @@
+package uk.tojoco.villagerlink;
+
+/**
+ * Shapes of the server-internal GlobalPos / BlockPos that {@link MemoryDecoder} resolves
+ * accessors for. Public so MethodHandles.publicLookup() can reach them, like the real ones.
+ */
+public final class FakeNms {
+
+    private FakeNms() {}
+
+    public static final class BlockPos {
+        private final long packed;
+
+        public BlockPos(int x, int y, int z) {
+            this.packed = PackedPos.pack(x, y, z);
+        }
+
+        public long asLong() {
+            return packed;
+        }
+    }
+
+    public static final class GlobalPos {
+        private static final Object OVERWORLD_KEY = new Object() {
+            @Override
+            public String toString() {
+                return "ResourceKey[minecraft:dimension / minecraft:overworld]";
+            }
+        };
+        private final BlockPos pos;
+
+        public GlobalPos(BlockPos pos) {
+            this.pos = pos;
+        }
+
+        public BlockPos pos() {
+            return pos;
+        }
+
+        public Object dimension() {
+            return OVERWORLD_KEY;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Villager;
+import org.bukkit.entity.memory.MemoryKey;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Proxy-backed stand-ins for the handful of Bukkit types the hot paths touch, so the
+ * benchmarks run without a server. Unhandled methods return zero/false/null.
+ */
+final class Fakes {
+
+    static final World OVERWORLD = world("world", NamespacedKey.minecraft("overworld"));
+
+    static {
+        // MemoryDecoder resolves dimensions through Bukkit.getWorlds()
+        Bukkit.setServer(proxy(Server.class, (self, m, args) -> switch (m.getName()) {
+            case "getWorlds" -> List.of(OVERWORLD);
+            case "getLogger" -> Logger.getLogger("fake-server");
+            case "getName", "getVersion", "getBukkitVersion" -> "fake";
+            default -> defaultValue(self, m.getReturnType(), m.getName(), args);
+        }));
+    }
+
+    private Fakes() {}
+
+    /** A loaded population whose HOME / JOB_SITE memories can be rewritten in place. */
+    static final class Population {
+        final Villager[] villagers;
+        final Object[] home;
+        final Object[] job;
+
+        Population(int size, MemoryShape shape) {
+            villagers = new Villager[size];
+            home = new Object[size];
+            job = new Object[size];
+            for (int i = 0; i < size; i++) {
+                home[i] = shape.make(i, 64, i * 3);
+                job[i] = shape.make(i, 65, i * 3 + 1);
+                villagers[i] = villager(this, i);
+            }
+        }
+
+        /** Moves the JOB_SITE of {@code count} villagers, starting at {@code from} (wrapping). */
+        void moveJobs(int from, int count, int salt, MemoryShape shape) {
+            for (int k = 0; k < count; k++) {
+                int i = (from + k) % villagers.length;
+                job[i] = shape.make(i, 65, i * 3 + 1 + (salt & 7) + 1);
+            }
+        }
+    }
+
+    /** The form a memory value arrives in. */
+    enum MemoryShape {
+        /** What Paper hands back today. */
+        LOCATION {
+            Object make(int x, int y, int z) { return new Location(OVERWORLD, x, y, z); }
+        },
+        /** A raw GlobalPos-like object, decoded by the cached accessor. */
+        GLOBAL_POS {
+            Object make(int x, int y, int z) { return new FakeNms.GlobalPos(new FakeNms.BlockPos(x, y, z)); }
+        },
+        /** Something only toString() can describe. */
+        STRING {
+            Object make(int x, int y, int z) { return new Opaque(x, y, z); }
+        };
+
+        abstract Object make(int x, int y, int z);
+    }
+
+    static final class Opaque {
+        private final int x, y, z;
+
+        Opaque(int x, int y, int z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public String toString() {
+            return "GlobalPos{dimension=minecraft:overworld, pos=(" + x + "," + y + "," + z + ")}";
+        }
+    }
+
+    static World world(String name, NamespacedKey key) {
+        UUID uid = UUID.nameUUIDFromBytes(name.getBytes());
+        return proxy(World.class, (self, m, args) -> switch (m.getName()) {
+            case "getUID" -> uid;
+            case "getName" -> name;
+            case "getKey" -> key;
+            case "getPlayers" -> PLAYERS;
+            default -> defaultValue(self, m.getReturnType(), m.getName(), args);
+        });
+    }
+
+    /** Players standing at increasing distances from the origin, so LOD and range checks all get exercised. */
+    static final List<Player> PLAYERS = List.of(player(0, 8), player(1, 24), player(2, 40), player(3, 80));
+
+    private static Player player(int index, double distance) {
+        UUID id = new UUID(0x9191L, index);
+        return proxy(Player.class, (self, m, args) -> switch (m.getName()) {
+            case "getUniqueId" -> id;
+            case "getWorld" -> OVERWORLD;
+            case "getLocation" -> args == null || args.length == 0
+                    ? new Location(OVERWORLD, distance, 64, 0)
+                    : ((Location) args[0]).set(distance, 64, 0);
+            case "isOnline" -> true;
+            default -> defaultValue(self, m.getReturnType(), m.getName(), args);
+        });
+    }
+
+    private static Villager villager(Population pop, int index) {
+        UUID id = new UUID(0x5A5AL, index);
+        Location at = new Location(OVERWORLD, index, 64, index * 3);
+        return proxy(Villager.class, (self, m, args) -> switch (m.getName()) {
+            case "getUniqueId" -> id;
+            case "getWorld" -> OVERWORLD;
+            case "getLocation" -> at;
+            case "isValid" -> true;
+            case "getMemory" -> args[0] == MemoryKey.HOME ? pop.home[index] : pop.job[index];
+            default -> defaultValue(self, m.getReturnType(), m.getName(), args);
+        });
+    }
+
+    private static Object defaultValue(Object self, Class<?> type, String name, Object[] args) {
+        switch (name) {
+            case "hashCode": return System.identityHashCode(self);
+            case "equals": return self == args[0];
+            case "toString": return "Fake@" + Integer.toHexString(System.identityHashCode(self));
+            default: break;
+        }
+        if (!type.isPrimitive()) return null;
+        if (type == boolean.class) return false;
+        if (type == void.class) return null;
+        if (type == long.class) return 0L;
+        if (type == double.class) return 0.0;
+        if (type == float.class) return 0.0f;
+        if (type == char.class) return '\0';
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+}
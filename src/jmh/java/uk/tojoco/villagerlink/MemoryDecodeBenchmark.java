@@ -0,0 +1,45 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.entity.memory.MemoryKey;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding one memory, per shape: a Paper Location, a raw GlobalPos through the
+ * cached accessor, and the toString() fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MemoryDecodeBenchmark {
+
+    @Param({ "LOCATION", "GLOBAL_POS", "STRING" })
+    public Fakes.MemoryShape shape;
+
+    private static final int SIZE = 1024;
+
+    private Fakes.Population population;
+    private MemoryDecoder decoder;
+    private final MemoryDecoder.Result result = new MemoryDecoder.Result();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        population = new Fakes.Population(SIZE, shape);
+        decoder = new MemoryDecoder(new WorldIds());
+    }
+
+    @Benchmark
+    public long decode() {
+        int i = next;
+        next = (i + 1) & (SIZE - 1);
+        decoder.decode(population.villagers[i], MemoryKey.JOB_SITE, result);
+        return result.pos ^ result.world;
+    }
+
+    @Benchmark
+    public boolean parseFallbackOnly() {
+        return MemoryDecoder.parseFallback(population.job[next++ & (SIZE - 1)].toString(), result);
+    }
+}
@@ -0,0 +1,73 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.entity.Villager;
+import org.bukkit.entity.memory.MemoryKey;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * One full scan pass: decode HOME/JOB_SITE for every villager into the snapshot buffer,
+ * then run the diff stage inline. ns/op is per pass over the whole population.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScanBenchmark {
+
+    @Param({ "1000", "10000", "50000" })
+    public int villagers;
+
+    /** Fraction of villagers whose JOB_SITE moves between passes. */
+    @Param({ "0.0", "0.01", "0.1" })
+    public double changeRate;
+
+    private Fakes.Population population;
+    private MemoryDecoder decoder;
+    private ScanPipeline pipeline;
+    private final MemoryDecoder.Result result = new MemoryDecoder.Result();
+    private int tick;
+    private int changeCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        WorldIds worlds = new WorldIds();
+        LinkStateStore states = new LinkStateStore();
+        decoder = new MemoryDecoder(worlds);
+        pipeline = new ScanPipeline(states, worlds, new Schedulers(null), Logger.getLogger("bench"), new Stats(),
+                new BaselineStore(null, worlds, Logger.getLogger("bench")), // never opened: cold start
+                new PoiIndex());
+        pipeline.configure(0, 1, 1, 0, false);
+        population = new Fakes.Population(villagers, Fakes.MemoryShape.LOCATION);
+
+        // Baseline pass, as on the first scan after startup
+        pass();
+    }
+
+    @Benchmark
+    public int scanPass() {
+        int changes = (int) (villagers * changeRate);
+        if (changes > 0) {
+            population.moveJobs(changeCursor, changes, tick, Fakes.MemoryShape.LOCATION);
+            changeCursor = (changeCursor + changes) % villagers;
+        }
+        return pass();
+    }
+
+    private int pass() {
+        tick += 100;
+        for (Villager v : population.villagers) {
+            decoder.decode(v, MemoryKey.HOME, result);
+            int homeWorld = result.world;
+            long homePos = result.pos;
+            decoder.decode(v, MemoryKey.JOB_SITE, result);
+            pipeline.offer(v.getUniqueId(), homeWorld, homePos, result.world, result.pos);
+        }
+        pipeline.diffNow(tick);
+
+        int triggers = 0;
+        while (pipeline.poll() != null) triggers++;
+        return triggers;
+    }
+}
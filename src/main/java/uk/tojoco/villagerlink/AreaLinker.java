@@ -0,0 +1,391 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Tag;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.data.type.Bed;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Villager;
+import org.bukkit.entity.memory.MemoryKey;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Links every villager in a box to free beds and workstations in one go.
+ * Three stages: on the threads owning the area's chunks, take a {@link ChunkSnapshot}
+ * per loaded chunk and note which villagers still lack a HOME or JOB_SITE; off the
+ * tick threads, search the snapshots for beds and workstations nobody holds and pair
+ * villagers with the nearest ones; back on the tick, write the memories a few
+ * villagers per tick.
+ */
+final class AreaLinker {
+
+    private static final int MAX_SIDE = 256;          // blocks, x and z
+    private static final int MAX_VILLAGERS = 4096;
+    private static final int MAX_POIS = 65_535;       // index has to fit the pair key
+    private static final int WRITES_PER_TICK = 20;
+    private static final int FLOOR_REACH = 2;
+
+    /** A villager that still needs a HOME and/or JOB_SITE, read on its own thread. */
+    private record Candidate(Villager villager, int x, int y, int z,
+                             boolean needsHome, boolean needsJob, Villager.Profession profession) {
+    }
+
+    /** What to write to one villager; either location may be null. */
+    private record Assignment(Villager villager, Location home, Location job, Material jobType) {
+    }
+
+    /** One running area link, from the first snapshot to the last memory write. */
+    private static final class Job {
+        final Player player;
+        final World world;
+        final int worldId;
+        final int minX, minY, minZ, maxX, maxY, maxZ;
+        final Queue<ChunkSnapshot> snapshots = new ConcurrentLinkedQueue<>();
+        final Queue<Candidate> candidates = new ConcurrentLinkedQueue<>();
+        /** POIs already named in a villager's memory inside the area (the state store covers the rest). */
+        final Queue<Long> held = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pendingChunks = new AtomicInteger();
+        final Queue<Assignment> writes = new ConcurrentLinkedQueue<>();
+        volatile Schedulers.Handle writer;
+        int homes, jobs, unplacedHomes, unplacedJobs;
+
+        Job(Player player, World world, int worldId, Location a, Location b) {
+            this.player = player;
+            this.world = world;
+            this.worldId = worldId;
+            minX = Math.min(a.getBlockX(), b.getBlockX());
+            maxX = Math.max(a.getBlockX(), b.getBlockX());
+            minY = Math.max(world.getMinHeight(), Math.min(a.getBlockY(), b.getBlockY()));
+            // Corners are usually clicked on the floor; reach up to where beds, workstations and villagers stand
+            maxY = Math.min(world.getMaxHeight() - 1, Math.max(a.getBlockY(), b.getBlockY()) + FLOOR_REACH);
+            minZ = Math.min(a.getBlockZ(), b.getBlockZ());
+            maxZ = Math.max(a.getBlockZ(), b.getBlockZ());
+        }
+
+        boolean contains(Location l) {
+            int x = l.getBlockX(), y = l.getBlockY(), z = l.getBlockZ();
+            return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+    }
+
+    private final VillagerLinkHighlighterPlugin plugin;
+    private final Map<UUID, Location> firstCorner = new ConcurrentHashMap<>();
+    private final Set<UUID> running = ConcurrentHashMap.newKeySet();
+
+    AreaLinker(VillagerLinkHighlighterPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /** Sneak-left-click with the stick: the first click marks a corner, the second links the box. */
+    void corner(Player p, Block clicked) {
+        Location here = clicked.getLocation();
+        Location first = firstCorner.remove(p.getUniqueId());
+        if (first == null || first.getWorld() != here.getWorld()) {
+            firstCorner.put(p.getUniqueId(), here);
+            p.sendActionBar("§aArea corner 1 set. §7Sneak-left-click the opposite corner.");
+            return;
+        }
+        if (Math.abs(first.getBlockX() - here.getBlockX()) >= MAX_SIDE
+                || Math.abs(first.getBlockZ() - here.getBlockZ()) >= MAX_SIDE) {
+            p.sendActionBar("§cArea too large (max " + MAX_SIDE + "×" + MAX_SIDE + " blocks).");
+            return;
+        }
+        if (!running.add(p.getUniqueId())) {
+            p.sendActionBar("§eAn area link is already running for you.");
+            return;
+        }
+        World w = here.getWorld();
+        start(new Job(p, w, plugin.worlds().idOf(w), first, here));
+    }
+
+    // ---- stage 1: snapshots and candidates, on the owning threads ----
+
+    private void start(Job job) {
+        int cx0 = job.minX >> 4, cx1 = job.maxX >> 4, cz0 = job.minZ >> 4, cz1 = job.maxZ >> 4;
+        job.pendingChunks.set((cx1 - cx0 + 1) * (cz1 - cz0 + 1));
+        job.player.sendActionBar("§aScanning area…");
+        for (int cx = cx0; cx <= cx1; cx++) {
+            for (int cz = cz0; cz <= cz1; cz++) {
+                int chunkX = cx, chunkZ = cz;
+                Location at = new Location(job.world, (chunkX << 4) + 8, job.minY, (chunkZ << 4) + 8);
+                plugin.schedulers().atLocation(at, () -> {
+                    try {
+                        capture(job, chunkX, chunkZ);
+                    } finally {
+                        if (job.pendingChunks.decrementAndGet() == 0) {
+                            plugin.schedulers().async(() -> search(job));
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void capture(Job job, int chunkX, int chunkZ) {
+        World w = job.world;
+        if (!w.isChunkLoaded(chunkX, chunkZ)) return; // never load chunks for this
+        job.snapshots.add(w.getChunkAt(chunkX, chunkZ).getChunkSnapshot(false, false, false));
+        plugin.registry().forEachInChunk(w, chunkX, chunkZ, v -> {
+            if (!v.isValid()) return;
+            Location l = v.getLocation();
+            if (!job.contains(l)) return;
+            Location home = v.getMemory(MemoryKey.HOME);
+            Location work = v.getMemory(MemoryKey.JOB_SITE);
+            if (home != null) job.held.add(PackedPos.pack(home.getBlockX(), home.getBlockY(), home.getBlockZ()));
+            if (work != null) job.held.add(PackedPos.pack(work.getBlockX(), work.getBlockY(), work.getBlockZ()));
+
+            Villager.Profession prof = v.getProfession();
+            boolean needsHome = home == null;
+            boolean needsJob = work == null && v.isAdult() && prof != Villager.Profession.NITWIT;
+            if (needsHome || needsJob) {
+                job.candidates.add(new Candidate(v, l.getBlockX(), l.getBlockY(), l.getBlockZ(),
+                        needsHome, needsJob, prof));
+            }
+        });
+    }
+
+    // ---- stage 2: POI search and pairing, off the tick threads ----
+
+    private void search(Job job) {
+        long[] claimed = claimed(job);
+
+        long[] beds = new long[64];
+        int bedCount = 0;
+        long[] sites = new long[64];
+        Material[] siteType = new Material[64];
+        int siteCount = 0;
+
+        int minSection = job.world.getMinHeight() >> 4;
+        for (ChunkSnapshot snap : job.snapshots) {
+            int baseX = snap.getX() << 4, baseZ = snap.getZ() << 4;
+            int x0 = Math.max(job.minX, baseX), x1 = Math.min(job.maxX, baseX + 15);
+            int z0 = Math.max(job.minZ, baseZ), z1 = Math.min(job.maxZ, baseZ + 15);
+            for (int sy = job.minY >> 4; sy <= job.maxY >> 4; sy++) {
+                if (snap.isSectionEmpty(sy - minSection)) continue;
+                int y0 = Math.max(job.minY, sy << 4), y1 = Math.min(job.maxY, (sy << 4) + 15);
+                for (int y = y0; y <= y1; y++) {
+                    for (int x = x0; x <= x1; x++) {
+                        for (int z = z0; z <= z1; z++) {
+                            Material m = snap.getBlockType(x - baseX, y, z - baseZ);
+                            boolean bed = Tag.BEDS.isTagged(m);
+                            if (!bed && !DebugStickListener.WORKSTATIONS.contains(m)) continue;
+                            long pos = PackedPos.pack(x, y, z);
+                            if (Arrays.binarySearch(claimed, pos) >= 0) continue;
+                            if (bed) {
+                                // The head half is the POI
+                                if (!(snap.getBlockData(x - baseX, y, z - baseZ) instanceof Bed b)
+                                        || b.getPart() != Bed.Part.HEAD) continue;
+                                if (bedCount == MAX_POIS) continue;
+                                if (bedCount == beds.length) beds = Arrays.copyOf(beds, bedCount * 2);
+                                beds[bedCount++] = pos;
+                            } else {
+                                if (siteCount == MAX_POIS) continue;
+                                if (siteCount == sites.length) {
+                                    sites = Arrays.copyOf(sites, siteCount * 2);
+                                    siteType = Arrays.copyOf(siteType, siteCount * 2);
+                                }
+                                sites[siteCount] = pos;
+                                siteType[siteCount++] = m;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        job.snapshots.clear();
+
+        List<Candidate> cands = new ArrayList<>(job.candidates);
+        job.candidates.clear();
+        if (cands.size() > MAX_VILLAGERS) cands = cands.subList(0, MAX_VILLAGERS);
+
+        int[] homeOf = pair(job, cands, true, beds, bedCount, null);
+        int[] jobOf = pair(job, cands, false, sites, siteCount, siteType);
+
+        for (int i = 0; i < cands.size(); i++) {
+            Candidate c = cands.get(i);
+            Location home = null, work = null;
+            Material workType = null;
+            if (c.needsHome()) {
+                if (homeOf[i] >= 0) { home = center(job.world, beds[homeOf[i]]); job.homes++; }
+                else job.unplacedHomes++;
+            }
+            if (c.needsJob()) {
+                if (jobOf[i] >= 0) { work = center(job.world, sites[jobOf[i]]); workType = siteType[jobOf[i]]; job.jobs++; }
+                else job.unplacedJobs++;
+            }
+            if (home != null || work != null) job.writes.add(new Assignment(c.villager(), home, work, workType));
+        }
+
+        if (job.writes.isEmpty()) {
+            finish(job);
+            return;
+        }
+        job.writer = plugin.schedulers().repeating(() -> write(job), 1L, 1L);
+    }
+
+    private long[] claimed(Job job) {
+        long[] fromStore = plugin.states().claims(job.worldId);
+        long[] all = Arrays.copyOf(fromStore, fromStore.length + job.held.size());
+        int n = fromStore.length;
+        for (Long p : job.held) if (n < all.length) all[n++] = p;
+        all = Arrays.copyOf(all, n);
+        Arrays.sort(all);
+        return all;
+    }
+
+    /**
+     * Greedy nearest-first matching: repeatedly takes the closest (villager, POI) pair
+     * whose POI is still free. Each villager keeps one entry in a queue, its nearest free
+     * compatible POI; when that POI has gone to someone else the villager looks again.
+     * The POIs are filed in a grid of 16×16 columns so each look only covers the columns
+     * around the villager, and memory stays linear in villagers plus POIs. Returns the
+     * POI index per candidate, or -1.
+     */
+    private static int[] pair(Job job, List<Candidate> cands, boolean homes, long[] pois, int poiCount, Material[] types) {
+        int[] out = new int[cands.size()];
+        Arrays.fill(out, -1);
+        if (poiCount == 0) return out;
+
+        Grid grid = new Grid(job, pois, poiCount);
+        boolean[] taken = new boolean[poiCount];
+        PriorityQueue<Long> queue = new PriorityQueue<>();
+        for (int ci = 0; ci < cands.size(); ci++) {
+            Candidate c = cands.get(ci);
+            if (homes ? !c.needsHome() : !c.needsJob()) continue;
+            long key = grid.nearestFree(c, ci, homes, types, taken);
+            if (key >= 0) queue.add(key);
+        }
+        while (!queue.isEmpty()) {
+            long key = queue.poll();
+            int ci = (int) (key >>> 16 & 0xFFFF);
+            int pi = (int) (key & 0xFFFF);
+            if (taken[pi]) {
+                long next = grid.nearestFree(cands.get(ci), ci, homes, types, taken);
+                if (next >= 0) queue.add(next);
+                continue;
+            }
+            out[ci] = pi;
+            taken[pi] = true;
+        }
+        return out;
+    }
+
+    /** POI indexes by 16×16 column of the area. */
+    private static final class Grid {
+        final long[] pois;
+        final int minX, minZ, width, depth;
+        final int[][] cells;
+
+        Grid(Job job, long[] pois, int poiCount) {
+            this.pois = pois;
+            minX = job.minX;
+            minZ = job.minZ;
+            width = ((job.maxX - minX) >> 4) + 1;
+            depth = ((job.maxZ - minZ) >> 4) + 1;
+            int[] counts = new int[width * depth];
+            for (int pi = 0; pi < poiCount; pi++) counts[cell(pois[pi])]++;
+            cells = new int[width * depth][];
+            for (int i = 0; i < cells.length; i++) cells[i] = new int[counts[i]];
+            Arrays.fill(counts, 0);
+            for (int pi = 0; pi < poiCount; pi++) {
+                int cell = cell(pois[pi]);
+                cells[cell][counts[cell]++] = pi;
+            }
+        }
+
+        int cell(long pos) {
+            return ((PackedPos.x(pos) - minX) >> 4) * depth + ((PackedPos.z(pos) - minZ) >> 4);
+        }
+
+        /**
+         * Pair key ({@code d2 << 32 | ci << 16 | pi}) for the villager's nearest free
+         * compatible POI, or -1. Rings of columns are searched outwards until no column
+         * further out can hold anything closer.
+         */
+        long nearestFree(Candidate c, int ci, boolean homes, Material[] types, boolean[] taken) {
+            int gx = Math.max(0, Math.min(width - 1, (c.x() - minX) >> 4));
+            int gz = Math.max(0, Math.min(depth - 1, (c.z() - minZ) >> 4));
+            long best = Long.MAX_VALUE;
+            int bestPi = -1;
+            int maxRing = Math.max(Math.max(gx, width - 1 - gx), Math.max(gz, depth - 1 - gz));
+            for (int r = 0; r <= maxRing; r++) {
+                for (int x = gx - r; x <= gx + r; x++) {
+                    if (x < 0 || x >= width) continue;
+                    boolean edge = x == gx - r || x == gx + r;
+                    for (int z = gz - r; z <= gz + r; z += edge ? 1 : 2 * r) {
+                        if (z >= 0 && z < depth) {
+                            for (int pi : cells[x * depth + z]) {
+                                if (taken[pi] || (!homes && !fits(c.profession(), types[pi]))) continue;
+                                long p = pois[pi];
+                                long dx = PackedPos.x(p) - c.x(), dy = PackedPos.y(p) - c.y(), dz = PackedPos.z(p) - c.z();
+                                long d2 = dx * dx + dy * dy + dz * dz; // < 2^31 for a MAX_SIDE box
+                                if (d2 < best || (d2 == best && pi < bestPi)) { // same order as a full sort
+                                    best = d2;
+                                    bestPi = pi;
+                                }
+                            }
+                        }
+                        if (r == 0) break;
+                    }
+                }
+                // Anything in ring r + 1 is at least r * 16 blocks away horizontally
+                long reach = (long) r * 16;
+                if (bestPi >= 0 && best <= reach * reach) break;
+            }
+            return bestPi < 0 ? -1 : best << 32 | (long) ci << 16 | bestPi;
+        }
+    }
+
+    /** Unemployed villagers take any workstation; employed ones only their own. */
+    private static boolean fits(Villager.Profession prof, Material site) {
+        Villager.Profession offers = DebugStickListener.WS_TO_PROF.get(site);
+        return offers != null && (prof == Villager.Profession.NONE || prof.equals(offers));
+    }
+
+    private static Location center(World w, long pos) {
+        return new Location(w, PackedPos.x(pos) + 0.5, PackedPos.y(pos) + 0.5, PackedPos.z(pos) + 0.5);
+    }
+
+    // ---- stage 3: memory writes, a few per tick ----
+
+    private void write(Job job) {
+        for (int i = 0; i < WRITES_PER_TICK; i++) {
+            Assignment a = job.writes.poll();
+            if (a == null) {
+                job.writer.cancel();
+                finish(job);
+                return;
+            }
+            Villager v = a.villager();
+            plugin.schedulers().onEntity(v, () -> {
+                if (!v.isValid()) return;
+                // Something may have claimed a POI since the snapshot; only fill what is still empty
+                if (a.home() != null && v.getMemory(MemoryKey.HOME) == null) {
+                    DebugStickListener.linkHome(v, a.home());
+                    plugin.indexLink(v, true, a.home());
+                }
+                if (a.job() != null && v.getMemory(MemoryKey.JOB_SITE) == null) {
+                    DebugStickListener.linkJob(v, a.job(), a.jobType());
+                    plugin.indexLink(v, false, a.job());
+                }
+            });
+        }
+    }
+
+    private void finish(Job job) {
+        running.remove(job.player.getUniqueId());
+        job.player.sendMessage("§aArea link: §f" + job.homes + " §7beds and §f" + job.jobs
+                + " §7workstations assigned.");
+        if (job.unplacedHomes > 0 || job.unplacedJobs > 0) {
+            job.player.sendMessage("§7No free POI left for §f" + job.unplacedHomes + " §7HOME and §f"
+                    + job.unplacedJobs + " §7JOB_SITE requests.");
+        }
+    }
+}
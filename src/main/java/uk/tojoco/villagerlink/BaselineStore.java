@@ -0,0 +1,446 @@
+package uk.tojoco.villagerlink;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * HOME / JOB_SITE baselines that outlive an unload or a restart, in a memory-mapped
+ * open-addressing table keyed by villager UUID. A villager's record is written when it
+ * leaves the world and for everything still tracked on shutdown, and read back the
+ * first time the diff sees it again, so a change made while it was away (or while the
+ * server was down) triggers on the first scan instead of becoming the new baseline.
+ *
+ * <p>Layout: a {@value #HEADER_BYTES}-byte header (magic, version, capacity, live and
+ * used slot counts, world table) followed by {@code capacity} fixed-width
+ * {@value #RECORD_BYTES}-byte records with linear probing. Worlds are stored as an index
+ * into the header's UUID table, independent of this session's {@link WorldIds}. Each
+ * record carries the day it was last saved; records not saved for
+ * {@code state.expire_days} are dropped, so villagers that never come back (converted,
+ * removed by another plugin, in a deleted world) don't keep their slot forever.
+ *
+ * <p>Saves never resize the table. {@link #maintain}, run off the tick thread, expires
+ * old records, flushes, and rehashes once the table fills up: at the same capacity when
+ * the slots are mostly tombstones, at twice the capacity otherwise. The new table goes
+ * to the next generation's file
+ * ({@code baselines.1.dat}, {@code baselines.2.dat}, ...) and then points the small
+ * {@code .gen} file at it. The table that is still mapped is never renamed or replaced,
+ * which Windows refuses; files of older generations are deleted once they are unmapped,
+ * or on the next {@link #open}.
+ */
+final class BaselineStore {
+
+    /** Reusable output of {@link #load}. */
+    static final class Entry {
+        int homeWorld;
+        long home;
+        int jobWorld;
+        long job;
+    }
+
+    private static final int MAGIC = 0x564C4231; // "VLB1"
+    private static final int VERSION = 2; // 1 had no saved day; upgraded in place on open
+    private static final int MAX_WORLDS = 64;
+    private static final int HEADER_BYTES = 32 + MAX_WORLDS * 16;
+    private static final int RECORD_BYTES = 40;
+    private static final int INITIAL_CAPACITY = 4096;
+    /** Maintenance rehashes above this share of used slots (percent). */
+    private static final int REHASH_AT = 60;
+    /** Live records take at most this share of a rehashed table (percent). */
+    private static final int REHASH_TO = 40;
+    /** Saves are refused above this share until maintenance has run (percent). */
+    private static final int FULL_AT = 95;
+
+    // header offsets
+    private static final int H_MAGIC = 0, H_VERSION = 4, H_CAPACITY = 8, H_LIVE = 12, H_USED = 16, H_WORLDS = 20;
+    private static final int H_WORLD_TABLE = 32;
+    // record offsets
+    private static final int R_MSB = 0, R_LSB = 8, R_HOME = 16, R_JOB = 24, R_HOME_WORLD = 32, R_JOB_WORLD = 34,
+            R_STATE = 36, R_SAVED_DAY = 38;
+    private static final int EMPTY = 0, LIVE = 1, DELETED = 2;
+
+    private final Path file;
+    private final Path pointer;
+    private final WorldIds worlds;
+    private final Logger log;
+
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    private int capacity;
+    private int generation;
+    private final UUID[] fileWorlds = new UUID[MAX_WORLDS];
+    private int worldCount;
+    private boolean warnedWorlds;
+    private boolean warnedFull;
+    private int expiredDay = -1;
+    private volatile int expireDays = 30;
+
+    BaselineStore(Path file, WorldIds worlds, Logger log) {
+        this.file = file;
+        this.pointer = file.resolveSibling(file.getFileName() + ".gen");
+        this.worlds = worlds;
+        this.log = log;
+    }
+
+    /** Days without a save after which a record is dropped; 0 keeps records forever. */
+    void configure(int expireDays) {
+        this.expireDays = Math.max(0, expireDays);
+    }
+
+    /** Maps the file, creating it (or starting over if it is unreadable). */
+    synchronized void open() {
+        try {
+            Files.createDirectories(file.getParent());
+            generation = readGeneration();
+            Path table = table(generation);
+            boolean fresh = !Files.exists(table) || Files.size(table) < HEADER_BYTES;
+            if (!fresh && !mapExisting(table)) {
+                log.warning("Ignoring unreadable " + table.getFileName() + "; starting with empty baselines.");
+                close();
+                fresh = true;
+            }
+            if (fresh) create(table, INITIAL_CAPACITY);
+            deleteStale();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Could not open " + file + "; baselines won't survive restarts.", e);
+            close();
+        }
+    }
+
+    /** Flushes and unmaps; further calls are no-ops until the next {@link #open}. */
+    synchronized void close() {
+        if (map != null) map.force();
+        map = null;
+        if (channel != null) {
+            try { channel.close(); } catch (IOException ignored) { }
+        }
+        channel = null;
+    }
+
+    /** Reads a villager's saved baseline into {@code out}; false if there is none. */
+    synchronized boolean load(UUID id, Entry out) {
+        if (map == null) return false;
+        int slot = find(id);
+        if (slot < 0) return false;
+        int at = recordAt(slot);
+        out.home = map.getLong(at + R_HOME);
+        out.job = map.getLong(at + R_JOB);
+        out.homeWorld = runtimeWorld(map.getShort(at + R_HOME_WORLD));
+        out.jobWorld = runtimeWorld(map.getShort(at + R_JOB_WORLD));
+        return true;
+    }
+
+    synchronized void save(UUID id, int homeWorld, long home, int jobWorld, long job) {
+        if (map == null) return;
+        short hw = fileWorld(homeWorld), jw = fileWorld(jobWorld);
+        if ((homeWorld != WorldIds.NONE && hw < 0) || (jobWorld != WorldIds.NONE && jw < 0)) return;
+
+        int slot = find(id);
+        if (slot < 0) {
+            if ((used() + 1) * 100L > (long) capacity * FULL_AT) {
+                if (!warnedFull) log.warning(file.getFileName() + " is full until its next maintenance; some baselines aren't saved.");
+                warnedFull = true;
+                return;
+            }
+            slot = freeSlot(id);
+            int at = recordAt(slot);
+            if (map.getShort(at + R_STATE) == EMPTY) map.putInt(H_USED, used() + 1);
+            map.putLong(at + R_MSB, id.getMostSignificantBits());
+            map.putLong(at + R_LSB, id.getLeastSignificantBits());
+            map.putShort(at + R_STATE, (short) LIVE);
+            map.putInt(H_LIVE, map.getInt(H_LIVE) + 1);
+        }
+        int at = recordAt(slot);
+        map.putLong(at + R_HOME, home);
+        map.putLong(at + R_JOB, job);
+        map.putShort(at + R_HOME_WORLD, hw);
+        map.putShort(at + R_JOB_WORLD, jw);
+        map.putShort(at + R_SAVED_DAY, (short) today());
+    }
+
+    /** Forgets a villager that died; its record slot becomes a tombstone. */
+    synchronized void delete(UUID id) {
+        if (map == null) return;
+        int slot = find(id);
+        if (slot < 0) return;
+        map.putShort(recordAt(slot) + R_STATE, (short) DELETED);
+        map.putInt(H_LIVE, map.getInt(H_LIVE) - 1);
+    }
+
+    /**
+     * Makes room for {@code more} new records right away; for bulk saves on shutdown,
+     * where blocking doesn't matter.
+     */
+    synchronized void reserve(int more) {
+        if (map == null) return;
+        if ((used() + (long) more) * 100L > (long) capacity * REHASH_AT) rehash(more);
+    }
+
+    /**
+     * Expires old records (once a day), rehashes if the table is filling up, and flushes
+     * the mapping. Call off the tick thread; saves wait while it runs.
+     */
+    synchronized void maintain() {
+        if (map == null) return;
+        int today = today();
+        if (today != expiredDay) {
+            expiredDay = today;
+            expire(today);
+        }
+        if (used() * 100L > (long) capacity * REHASH_AT) rehash(0);
+        if (map != null) map.force();
+    }
+
+    synchronized int size() {
+        return map == null ? 0 : map.getInt(H_LIVE);
+    }
+
+    synchronized long fileBytes() {
+        return map == null ? 0 : HEADER_BYTES + (long) capacity * RECORD_BYTES;
+    }
+
+    // ---- table ----
+
+    private int used() {
+        return map.getInt(H_USED);
+    }
+
+    private static int recordAt(int slot) {
+        return HEADER_BYTES + slot * RECORD_BYTES;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /** Slot holding the villager's live record, or -1. */
+    private int find(UUID id) {
+        long msb = id.getMostSignificantBits(), lsb = id.getLeastSignificantBits();
+        int mask = capacity - 1;
+        for (int i = hash(msb, lsb) & mask, n = 0; n < capacity; i = (i + 1) & mask, n++) {
+            int at = recordAt(i);
+            int state = map.getShort(at + R_STATE);
+            if (state == EMPTY) return -1;
+            if (state == LIVE && map.getLong(at + R_MSB) == msb && map.getLong(at + R_LSB) == lsb) return i;
+        }
+        return -1;
+    }
+
+    /** First empty or deleted slot on the villager's probe path; the table is never full here. */
+    private int freeSlot(UUID id) {
+        int mask = capacity - 1;
+        int i = hash(id.getMostSignificantBits(), id.getLeastSignificantBits()) & mask;
+        while (map.getShort(recordAt(i) + R_STATE) == LIVE) i = (i + 1) & mask;
+        return i;
+    }
+
+    /** Drops live records that haven't been saved for {@link #expireDays} days. */
+    private void expire(int today) {
+        int days = expireDays;
+        if (days == 0) return;
+        int dropped = 0;
+        for (int s = 0; s < capacity; s++) {
+            int at = recordAt(s);
+            if (map.getShort(at + R_STATE) != LIVE) continue;
+            int age = (today - map.getShort(at + R_SAVED_DAY)) & 0xFFFF;
+            if (age <= days) continue;
+            map.putShort(at + R_STATE, (short) DELETED);
+            dropped++;
+        }
+        if (dropped > 0) map.putInt(H_LIVE, map.getInt(H_LIVE) - dropped);
+    }
+
+    /**
+     * Rewrites the live records (tombstones are dropped) into a table with room for
+     * {@code more} besides, in the next generation's file, and switches to it once the
+     * pointer says so. The capacity only doubles when the live records need it.
+     */
+    private boolean rehash(int more) {
+        int next = generation + 1;
+        Path target = table(next);
+        MappedByteBuffer src = map;
+        FileChannel srcChannel = channel;
+        int oldCapacity = capacity;
+        int newCapacity = Math.max(INITIAL_CAPACITY, oldCapacity);
+        while ((map.getInt(H_LIVE) + (long) more) * 100L > (long) newCapacity * REHASH_TO) newCapacity *= 2;
+        try {
+            create(target, newCapacity);
+            copyWorlds(src);
+            for (int s = 0; s < oldCapacity; s++) {
+                int at = recordAt(s);
+                if (src.getShort(at + R_STATE) != LIVE) continue;
+                int to = recordAt(freeSlot(new UUID(src.getLong(at + R_MSB), src.getLong(at + R_LSB))));
+                for (int i = 0; i < RECORD_BYTES; i += 4) map.putInt(to + i, src.getInt(at + i));
+                map.putInt(H_USED, used() + 1);
+                map.putInt(H_LIVE, map.getInt(H_LIVE) + 1);
+            }
+            map.force();
+            writeGeneration(next);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Could not rehash " + file.getFileName() + "; keeping the current table.", e);
+            if (channel != srcChannel) close();
+            map = src;
+            channel = srcChannel;
+            capacity = oldCapacity;
+            loadWorldTable();
+            deleteQuietly(target);
+            return false;
+        }
+        generation = next;
+        warnedFull = false;
+        try { srcChannel.close(); } catch (IOException ignored) { }
+        deleteQuietly(table(next - 1)); // may still be mapped (Windows); open() retries
+        return true;
+    }
+
+    private void copyWorlds(MappedByteBuffer src) {
+        int n = src.getInt(H_WORLDS);
+        for (int i = 0; i < n * 16; i += 8) map.putLong(H_WORLD_TABLE + i, src.getLong(H_WORLD_TABLE + i));
+        map.putInt(H_WORLDS, n);
+        loadWorldTable();
+    }
+
+    // ---- worlds ----
+
+    private short fileWorld(int runtimeId) {
+        if (runtimeId == WorldIds.NONE) return -1;
+        UUID uid = worlds.uid(runtimeId);
+        if (uid == null) return -1;
+        for (int i = 0; i < worldCount; i++) {
+            if (uid.equals(fileWorlds[i])) return (short) i;
+        }
+        if (worldCount == MAX_WORLDS) {
+            if (!warnedWorlds) log.warning("Baseline file holds at most " + MAX_WORLDS + " worlds; others aren't saved.");
+            warnedWorlds = true;
+            return -1;
+        }
+        int i = worldCount++;
+        fileWorlds[i] = uid;
+        map.putLong(H_WORLD_TABLE + i * 16, uid.getMostSignificantBits());
+        map.putLong(H_WORLD_TABLE + i * 16 + 8, uid.getLeastSignificantBits());
+        map.putInt(H_WORLDS, worldCount);
+        return (short) i;
+    }
+
+    private int runtimeWorld(short fileId) {
+        return fileId < 0 || fileId >= worldCount ? WorldIds.NONE : worlds.idOf(fileWorlds[fileId]);
+    }
+
+    private void loadWorldTable() {
+        worldCount = Math.min(MAX_WORLDS, map.getInt(H_WORLDS));
+        for (int i = 0; i < worldCount; i++) {
+            fileWorlds[i] = new UUID(map.getLong(H_WORLD_TABLE + i * 16), map.getLong(H_WORLD_TABLE + i * 16 + 8));
+        }
+    }
+
+    // ---- file ----
+
+    private boolean mapExisting(Path table) throws IOException {
+        mapFile(table);
+        int cap = map.getInt(H_CAPACITY);
+        int version = map.getInt(H_VERSION);
+        boolean ok = map.getInt(H_MAGIC) == MAGIC && (version == 1 || version == VERSION)
+                && cap > 0 && Integer.bitCount(cap) == 1
+                && channel.size() == HEADER_BYTES + (long) cap * RECORD_BYTES;
+        if (!ok) return false;
+        capacity = cap;
+        if (version == 1) upgrade();
+        loadWorldTable();
+        return true;
+    }
+
+    /**
+     * Version 1 kept the state as an int whose upper half is always zero; that half is
+     * now the saved day. Old records count as saved today.
+     */
+    private void upgrade() {
+        short today = (short) today();
+        for (int s = 0; s < capacity; s++) {
+            int at = recordAt(s);
+            if (map.getShort(at + R_STATE) == LIVE) map.putShort(at + R_SAVED_DAY, today);
+        }
+        map.putInt(H_VERSION, VERSION);
+    }
+
+    private void create(Path path, int cap) throws IOException {
+        Files.deleteIfExists(path);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) cap * RECORD_BYTES);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        map.putInt(H_MAGIC, MAGIC);
+        map.putInt(H_VERSION, VERSION);
+        map.putInt(H_CAPACITY, cap);
+        capacity = cap;
+        worldCount = 0;
+    }
+
+    private void mapFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Days since the epoch; stored in 16 bits, so ages are taken modulo 65536. */
+    private static int today() {
+        return (int) (System.currentTimeMillis() / 86_400_000L);
+    }
+
+    /** The table file of a generation: the configured file for 0, {@code name.N.dat} after. */
+    private Path table(int gen) {
+        if (gen == 0) return file;
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling(dot < 0 ? name + "." + gen : name.substring(0, dot) + "." + gen + name.substring(dot));
+    }
+
+    /** Current generation from the pointer file; 0 (the configured file) without one. */
+    private int readGeneration() throws IOException {
+        if (!Files.exists(pointer)) return 0;
+        try {
+            return Math.max(0, Integer.parseInt(Files.readString(pointer).trim()));
+        } catch (NumberFormatException e) {
+            log.warning("Ignoring unreadable " + pointer.getFileName() + "; using " + file.getFileName() + ".");
+            return 0;
+        }
+    }
+
+    /** Points at a new generation; the pointer is never mapped, so replacing it works everywhere. */
+    private void writeGeneration(int gen) throws IOException {
+        Path tmp = pointer.resolveSibling(pointer.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmp, Integer.toString(gen));
+            Files.move(tmp, pointer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteQuietly(tmp);
+            throw e;
+        }
+    }
+
+    /** Deletes table files of other generations and leftovers of an interrupted rehash. */
+    private void deleteStale() {
+        for (int gen = 0; gen < generation; gen++) deleteQuietly(table(gen)); // one per doubling, so few
+        for (int gen = generation + 1; Files.exists(table(gen)); gen++) deleteQuietly(table(gen));
+        deleteQuietly(pointer.resolveSibling(pointer.getFileName() + ".tmp"));
+        deleteQuietly(file.resolveSibling(file.getFileName() + ".tmp")); // from versions that grew by renaming
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // still mapped on Windows; the next open() tries again
+        }
+    }
+}
@@ -2,6 +2,7 @@ package uk.tojoco.villagerlink;
 
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
 import org.bukkit.Particle;
 import org.bukkit.Sound;
 import org.bukkit.Tag;
@@ -14,25 +15,49 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Event;
 import org.bukkit.event.block.Action;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
 import org.bukkit.event.player.PlayerBedEnterEvent;
 import org.bukkit.event.player.PlayerInteractAtEntityEvent;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.event.player.PlayerItemHeldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerSwapHandItemsEvent;
 import org.bukkit.event.Event.Result;
 import org.bukkit.inventory.EquipmentSlot;
 import org.bukkit.inventory.ItemFlag;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DebugStickListener implements org.bukkit.event.Listener {
 
     private final VillagerLinkHighlighterPlugin plugin;
+    private final AreaLinker area;
 
-    private final Map<UUID, UUID> selectedVillagerByPlayer = new HashMap<>();
+    // Concurrent: on region-threaded servers players in different regions click at the same time
+    private final Map<UUID, UUID> selectedVillagerByPlayer = new ConcurrentHashMap<>();
 
-    private static final Set<Material> WORKSTATIONS = EnumSet.of(
+    // Tags the stick, so it is recognised whatever it is called or renamed to
+    private static final NamespacedKey STICK_KEY =
+            new NamespacedKey(JavaPlugin.getPlugin(VillagerLinkHighlighterPlugin.class), "linker_stick");
+    private static final int STICK_MODEL_DATA = 2100121;
+
+    // Players with the stick in either hand, kept up to date from inventory events so the
+    // interact handlers and the watcher refresh never have to look at items
+    private static final Set<UUID> HOLDING = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> recheckPending = ConcurrentHashMap.newKeySet();
+
+    static final Set<Material> WORKSTATIONS = EnumSet.of(
             Material.COMPOSTER, Material.LECTERN, Material.BLAST_FURNACE, Material.SMOKER,
             Material.SMITHING_TABLE, Material.GRINDSTONE, Material.CARTOGRAPHY_TABLE,
             Material.BREWING_STAND, Material.BARREL, Material.FLETCHING_TABLE,
@@ -40,7 +65,7 @@ public class DebugStickListener implements org.bukkit.event.Listener {
     );
 
     // NEW: workstation -> profession mapping (used only when villager is NONE)
-    private static final Map<Material, Villager.Profession> WS_TO_PROF = Map.ofEntries(
+    static final Map<Material, Villager.Profession> WS_TO_PROF = Map.ofEntries(
             Map.entry(Material.COMPOSTER,         Villager.Profession.FARMER),
             Map.entry(Material.LECTERN,           Villager.Profession.LIBRARIAN),
             Map.entry(Material.BLAST_FURNACE,     Villager.Profession.ARMORER),
@@ -56,8 +81,18 @@ public class DebugStickListener implements org.bukkit.event.Listener {
             Map.entry(Material.LOOM,              Villager.Profession.SHEPHERD)
     );
 
+    // Shown only to the player who made the link
+    private static final EffectEngine.Style FEEDBACK = new EffectEngine.Style(Particle.ENCHANT, 40, 0.3, 0.5, 0.3, 0.0,
+            1, 1, Sound.BLOCK_BEACON_ACTIVATE, 0.7f, 1.0f);
+
+    private static final EffectEngine.Style SELECTED = new EffectEngine.Style(Particle.HAPPY_VILLAGER, 25, 0.3, 0.6, 0.3, 0.05,
+            1, 1, Sound.ENTITY_VILLAGER_YES, 0.9f, 1.2f);
+
     public DebugStickListener(VillagerLinkHighlighterPlugin plugin) {
         this.plugin = plugin;
+        this.area = new AreaLinker(plugin);
+        HOLDING.clear();
+        for (Player p : plugin.getServer().getOnlinePlayers()) recheck(p); // players already online on a reload
     }
 
     public static ItemStack makeStick() {
@@ -67,25 +102,115 @@ public class DebugStickListener implements org.bukkit.event.Listener {
         meta.setLore(List.of(
                 "§7Sneak-Right-Click a villager to select",
                 "§7Right-Click a bed to set HOME",
-                "§7Right-Click a workstation to set JOB_SITE"
+                "§7Right-Click a workstation to set JOB_SITE",
+                "§7Sneak-Left-Click two corners to link a whole area"
         ));
         meta.addItemFlags(ItemFlag.HIDE_ENCHANTS);
-        meta.setCustomModelData(2100121);
+        meta.setCustomModelData(STICK_MODEL_DATA);
+        meta.getPersistentDataContainer().set(STICK_KEY, PersistentDataType.BYTE, (byte) 1);
         it.setItemMeta(meta);
         return it;
     }
 
-    private boolean isOurStick(ItemStack item) {
-        if (item == null || item.getType() != Material.STICK) return false;
+    private static boolean isOurStick(ItemStack item) {
+        if (item == null || item.getType() != Material.STICK || !item.hasItemMeta()) return false;
+        if (item.getPersistentDataContainer().has(STICK_KEY)) return true; // read-only view, no meta copy
+        // Sticks handed out before the tag existed: model data plus the English name
         ItemMeta meta = item.getItemMeta();
-        if (meta == null || !meta.hasDisplayName()) return false;
+        if (!meta.hasCustomModelData() || meta.getCustomModelData() != STICK_MODEL_DATA || !meta.hasDisplayName()) return false;
         String name = org.bukkit.ChatColor.stripColor(meta.getDisplayName());
         return name != null && name.equalsIgnoreCase("Villager Linker");
     }
 
-    private boolean stickInEitherHand(Player p) {
-        return isOurStick(p.getInventory().getItemInMainHand()) ||
-               isOurStick(p.getInventory().getItemInOffHand());
+    /**
+     * Whether the player had the stick in either hand as of the last recheck; a set lookup,
+     * items aren't looked at. Can lag behind changes that fire no event, so it is only
+     * good enough for deciding who watches, not for cancelling a click.
+     */
+    static boolean isHoldingStick(Player p) {
+        return HOLDING.contains(p.getUniqueId());
+    }
+
+    /**
+     * Whether the player has the stick in either hand right now; call on the player's thread.
+     * Players the cache doesn't know as holding it are ruled out by item type alone, so a
+     * stick that arrived without an event (say /give into the held slot) is still seen.
+     * Whatever the hands hold, the cache is corrected to match.
+     */
+    private static boolean stickInHand(Player p) {
+        ItemStack main = p.getInventory().getItemInMainHand();
+        ItemStack off = p.getInventory().getItemInOffHand();
+        UUID id = p.getUniqueId();
+        if (!HOLDING.contains(id) && main.getType() != Material.STICK && off.getType() != Material.STICK) return false;
+        boolean holding = isOurStick(main) || isOurStick(off);
+        if (holding) HOLDING.add(id);
+        else HOLDING.remove(id);
+        return holding;
+    }
+
+    /**
+     * Looks at the player's hands again on the next tick, once the inventory change that
+     * prompted it has been applied. Several changes in one tick cost one look.
+     */
+    void recheck(Player p) {
+        UUID id = p.getUniqueId();
+        if (!recheckPending.add(id)) return;
+        plugin.schedulers().laterOnEntity(p, () -> {
+            recheckPending.remove(id);
+            if (!p.isOnline()) return;
+            if (isOurStick(p.getInventory().getItemInMainHand()) || isOurStick(p.getInventory().getItemInOffHand())) {
+                HOLDING.add(id);
+            } else {
+                HOLDING.remove(id);
+            }
+        });
+    }
+
+    // ---- keeping HOLDING current ----
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent ev) {
+        recheck(ev.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent ev) {
+        HOLDING.remove(ev.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onHeldSlot(PlayerItemHeldEvent ev) {
+        recheck(ev.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSwapHands(PlayerSwapHandItemsEvent ev) {
+        recheck(ev.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryClick(InventoryClickEvent ev) {
+        if (ev.getWhoClicked() instanceof Player p) recheck(p);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onInventoryDrag(InventoryDragEvent ev) {
+        if (ev.getWhoClicked() instanceof Player p) recheck(p);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onDrop(PlayerDropItemEvent ev) {
+        recheck(ev.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPickup(EntityPickupItemEvent ev) {
+        if (ev.getEntity() instanceof Player p) recheck(p);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRespawn(PlayerRespawnEvent ev) {
+        recheck(ev.getPlayer());
     }
 
     /** Cancel villager UI & select target (some servers fire this event) */
@@ -94,16 +219,13 @@ public class DebugStickListener implements org.bukkit.event.Listener {
         if (!(ev.getRightClicked() instanceof Villager villager)) return;
 
         Player p = ev.getPlayer();
-        if (!p.isSneaking() || !stickInEitherHand(p)) return;
+        if (!p.isSneaking() || !stickInHand(p)) return;
 
         // cancel BOTH hands
         ev.setCancelled(true);
         if (ev.getHand() == EquipmentSlot.OFF_HAND) return;
 
-        selectedVillagerByPlayer.put(p.getUniqueId(), villager.getUniqueId());
-        p.sendActionBar("§aSelected villager §f" + villager.getUniqueId().toString().substring(0, 8));
-        villager.getWorld().spawnParticle(Particle.HAPPY_VILLAGER, villager.getLocation().add(0, 1.3, 0), 25, 0.3, 0.6, 0.3, 0.05);
-        villager.getWorld().playSound(villager.getLocation(), Sound.ENTITY_VILLAGER_YES, 0.9f, 1.2f);
+        select(p, villager);
     }
 
     /** Some builds fire AtEntity instead — cancel & select here too */
@@ -112,22 +234,19 @@ public class DebugStickListener implements org.bukkit.event.Listener {
         if (!(ev.getRightClicked() instanceof Villager villager)) return;
 
         Player p = ev.getPlayer();
-        if (!p.isSneaking() || !stickInEitherHand(p)) return;
+        if (!p.isSneaking() || !stickInHand(p)) return;
 
         ev.setCancelled(true);
         if (ev.getHand() == EquipmentSlot.OFF_HAND) return;
 
-        selectedVillagerByPlayer.put(p.getUniqueId(), villager.getUniqueId());
-        p.sendActionBar("§aSelected villager §f" + villager.getUniqueId().toString().substring(0, 8));
-        villager.getWorld().spawnParticle(Particle.HAPPY_VILLAGER, villager.getLocation().add(0, 1.3, 0), 25, 0.3, 0.6, 0.3, 0.05);
-        villager.getWorld().playSound(villager.getLocation(), Sound.ENTITY_VILLAGER_YES, 0.9f, 1.2f);
+        select(p, villager);
     }
 
     /** Cancel bed default (sleep/spawn) when using stick */
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = false)
     public void onBedEnter(PlayerBedEnterEvent ev) {
         Player p = ev.getPlayer();
-        if (!stickInEitherHand(p)) return;
+        if (!stickInHand(p)) return;
         // Block the bed action entirely when using the stick
         ev.setCancelled(true);
         ev.setUseBed(Event.Result.DENY);
@@ -136,10 +255,15 @@ public class DebugStickListener implements org.bukkit.event.Listener {
     /** Click bed/workstation to assign */
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = false)
     public void onInteractBlock(PlayerInteractEvent ev) {
-        if (ev.getAction() != Action.RIGHT_CLICK_BLOCK || ev.getClickedBlock() == null) return;
+        if (ev.getClickedBlock() == null) return;
+        if (ev.getAction() == Action.LEFT_CLICK_BLOCK) {
+            onAreaCorner(ev);
+            return;
+        }
+        if (ev.getAction() != Action.RIGHT_CLICK_BLOCK) return;
 
         Player p = ev.getPlayer();
-        if (!stickInEitherHand(p)) return;
+        if (!stickInHand(p)) return;
 
         // Cancel & deny default block/item use for BOTH hands
         ev.setCancelled(true);
@@ -163,42 +287,63 @@ public class DebugStickListener implements org.bukkit.event.Listener {
         Block b = ev.getClickedBlock();
         Material mat = b.getType();
 
+        // Memory writes run on the villager's own thread (inline on regular Paper)
         if (isBed(mat)) {
             Location bedLoc = bedCenter(b);
-            clearMemory(villager, MemoryKey.HOME);
-            setMemory(villager, MemoryKey.HOME, bedLoc);
+            plugin.schedulers().onEntity(villager, () -> linkHome(villager, bedLoc));
+            plugin.indexLink(villager, true, bedLoc);
             feedback(p, villager, bedLoc, "§bHOME linked");
             return;
         }
 
         if (WORKSTATIONS.contains(mat)) {
             Location wsLoc = b.getLocation().toCenterLocation();
-            clearMemory(villager, MemoryKey.JOB_SITE);
-            setMemory(villager, MemoryKey.JOB_SITE, wsLoc);
-
-            // NEW: if the villager is unemployed, set profession based on workstation
-            if (villager.getProfession() == Villager.Profession.NONE) {
-                Villager.Profession prof = WS_TO_PROF.get(mat);
-                if (prof != null) {
-                    villager.setProfession(prof);
-                    if (villager.getVillagerLevel() < 1) {
-                        villager.setVillagerLevel(1); // ensure novice level for new profession
-                    }
-                    p.sendActionBar("§aSet profession: §f" + prof.name());
-                }
-            }
+            plugin.schedulers().onEntity(villager, () -> {
+                Villager.Profession prof = linkJob(villager, wsLoc, mat);
+                if (prof != null) p.sendActionBar("§aSet profession: §f" + prof.name());
+            });
+            plugin.indexLink(villager, false, wsLoc);
 
             feedback(p, villager, wsLoc, "§dJOB_SITE linked");
         }
     }
 
-    private Villager findVillager(UUID id) {
-        for (var w : plugin.getServer().getWorlds()) {
-            for (var v : w.getEntitiesByClass(Villager.class)) {
-                if (v.getUniqueId().equals(id)) return v;
-            }
+    /** Sneak-left-click a block with the stick: area corners for {@link AreaLinker}. */
+    private void onAreaCorner(PlayerInteractEvent ev) {
+        Player p = ev.getPlayer();
+        if (!p.isSneaking() || !stickInHand(p)) return;
+        ev.setCancelled(true); // don't break the corner block
+        if (ev.getHand() == EquipmentSlot.OFF_HAND) return;
+        area.corner(p, ev.getClickedBlock());
+    }
+
+    /** Points HOME at a bed; call on the villager's thread. */
+    static void linkHome(Villager v, Location bed) {
+        clearMemory(v, MemoryKey.HOME);
+        setMemory(v, MemoryKey.HOME, bed);
+    }
+
+    /**
+     * Points JOB_SITE at a workstation; an unemployed villager also takes the matching
+     * profession, which is returned (null if it kept its own). Call on the villager's thread.
+     */
+    static Villager.Profession linkJob(Villager v, Location site, Material type) {
+        clearMemory(v, MemoryKey.JOB_SITE);
+        setMemory(v, MemoryKey.JOB_SITE, site);
+
+        // NEW: if the villager is unemployed, set profession based on workstation
+        if (v.getProfession() != Villager.Profession.NONE) return null;
+        Villager.Profession prof = WS_TO_PROF.get(type);
+        if (prof == null) return null;
+        v.setProfession(prof);
+        if (v.getVillagerLevel() < 1) {
+            v.setVillagerLevel(1); // ensure novice level for new profession
         }
-        return null;
+        return prof;
+    }
+
+    private Villager findVillager(UUID id) {
+        return plugin.registry().get(id);
     }
 
     private boolean isBed(Material m) {
@@ -216,18 +361,23 @@ public class DebugStickListener implements org.bukkit.event.Listener {
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private <T> void clearMemory(Villager v, MemoryKey<T> key) {
+    private static <T> void clearMemory(Villager v, MemoryKey<T> key) {
         v.setMemory((MemoryKey) key, null);
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private <T> void setMemory(Villager v, MemoryKey<T> key, T val) {
+    private static <T> void setMemory(Villager v, MemoryKey<T> key, T val) {
         v.setMemory((MemoryKey) key, val);
     }
 
+    private void select(Player p, Villager villager) {
+        selectedVillagerByPlayer.put(p.getUniqueId(), villager.getUniqueId());
+        p.sendActionBar("§aSelected villager §f" + villager.getUniqueId().toString().substring(0, 8));
+        plugin.delivery().showTo(p, villager.getLocation().add(0, 1.3, 0), SELECTED, true);
+    }
+
     private void feedback(Player p, Villager v, Location poi, String msg) {
         p.sendActionBar("§a" + msg + " §7for §f" + v.getUniqueId().toString().substring(0, 8));
-        v.getWorld().spawnParticle(Particle.ENCHANT, poi, 40, 0.3, 0.5, 0.3, 0.0);
-        v.getWorld().playSound(poi, Sound.BLOCK_BEACON_ACTIVATE, 0.7f, 1.0f);
+        plugin.delivery().showTo(p, poi, FEEDBACK, true);
     }
 }
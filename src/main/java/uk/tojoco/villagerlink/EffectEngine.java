@@ -0,0 +1,178 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.Sound;
+import org.bukkit.World;
+import org.bukkit.entity.Villager;
+
+import java.util.Arrays;
+
+/**
+ * All active highlights in one place, advanced by a single repeating task.
+ * Effects live in parallel arrays (swap-removed when they expire), a re-trigger on the
+ * same villager or POI restarts the existing effect instead of adding another, and a
+ * global cap drops anything beyond it, so a burst of link changes costs a bounded
+ * amount of work per tick and no scheduler tasks.
+ * On region-threaded servers the bookkeeping stays on the global tick and each
+ * render is handed to the region that owns the effect's position. Frames go out
+ * per player through {@link ParticleDelivery}.
+ */
+final class EffectEngine {
+
+    /** How one kind of highlight looks; built from the effects.* config section. */
+    record Style(Particle particle, int count, double spreadX, double spreadY, double spreadZ, double extra,
+                 int durationTicks, int everyTicks, Sound sound, float volume, float pitch) {
+    }
+
+    private static final byte VILLAGER = 0;
+    private static final byte POI = 1;
+
+    private final Schedulers schedulers;
+    private final ParticleDelivery delivery;
+    private Style villagerStyle;
+    private Style poiStyle;
+    private int maxConcurrent = 256;
+
+    private int count = 0;
+    private byte[] kind = new byte[0];
+    private Villager[] villager = new Villager[0];
+    private World[] world = new World[0];
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] z = new double[0];
+    private int[] age = new int[0];
+
+    private long started = 0;
+    private long merged = 0;
+    private long dropped = 0;
+
+    /** Reused for every frame rendered on the engine's own thread. */
+    private final Location scratch = new Location(null, 0, 0, 0);
+
+    EffectEngine(Schedulers schedulers, ParticleDelivery delivery) {
+        this.schedulers = schedulers;
+        this.delivery = delivery;
+    }
+
+    synchronized void configure(Style villagerStyle, Style poiStyle, int maxConcurrent) {
+        this.villagerStyle = villagerStyle;
+        this.poiStyle = poiStyle;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        if (count > this.maxConcurrent) {
+            for (int i = this.maxConcurrent; i < count; i++) forget(i);
+            count = this.maxConcurrent;
+        }
+    }
+
+    /** Sparkle around a villager (at roughly head height, where it stood when triggered). */
+    synchronized void highlightVillager(Villager v) {
+        for (int i = 0; i < count; i++) {
+            if (kind[i] == VILLAGER && villager[i] == v) { restart(i); return; }
+        }
+        Location loc = v.getLocation();
+        add(VILLAGER, v, loc.getWorld(), loc.getX(), loc.getY() + 1.0, loc.getZ());
+    }
+
+    /** Sparkle on a bed or workstation block. */
+    synchronized void highlightPoi(Location poi) {
+        World w = poi.getWorld();
+        double cx = poi.getBlockX() + 0.5, cy = poi.getBlockY() + 0.5, cz = poi.getBlockZ() + 0.5;
+        for (int i = 0; i < count; i++) {
+            if (kind[i] == POI && world[i] == w && x[i] == cx && y[i] == cy && z[i] == cz) { restart(i); return; }
+        }
+        add(POI, null, w, cx, cy, cz);
+    }
+
+    /** Advances every active effect by one tick; call once per server tick. */
+    synchronized void tick() {
+        int i = 0;
+        while (i < count) {
+            Style style = kind[i] == VILLAGER ? villagerStyle : poiStyle;
+            boolean alive = age[i] < style.durationTicks()
+                    && (kind[i] != VILLAGER || villager[i].isValid());
+            if (!alive) {
+                removeAt(i);
+                continue; // slot i now holds what was the last effect
+            }
+            if (age[i] % Math.max(1, style.everyTicks()) == 0) render(i, style);
+            age[i]++;
+            i++;
+        }
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < count; i++) forget(i);
+        count = 0;
+    }
+
+    synchronized int active() { return count; }
+    synchronized long started() { return started; }
+    synchronized long merged() { return merged; }
+    synchronized long dropped() { return dropped; }
+
+    // ---- internals ----
+
+    private void render(int i, Style style) {
+        boolean withSound = age[i] == 0;
+        if (schedulers.isRegionized()) {
+            Location at = new Location(world[i], x[i], y[i], z[i]);
+            schedulers.atLocation(at, () -> delivery.show(at, style, withSound));
+            return;
+        }
+        scratch.setWorld(world[i]);
+        scratch.set(x[i], y[i], z[i]);
+        delivery.show(scratch, style, withSound);
+    }
+
+    private void add(byte k, Villager v, World w, double px, double py, double pz) {
+        if (w == null) return;
+        if (count >= maxConcurrent) { dropped++; return; }
+        if (count == kind.length) grow();
+        kind[count] = k;
+        villager[count] = v;
+        world[count] = w;
+        x[count] = px;
+        y[count] = py;
+        z[count] = pz;
+        age[count] = 0;
+        count++;
+        started++;
+    }
+
+    private void restart(int i) {
+        age[i] = 0;
+        merged++;
+    }
+
+    private void removeAt(int i) {
+        int last = --count;
+        if (i != last) {
+            kind[i] = kind[last];
+            villager[i] = villager[last];
+            world[i] = world[last];
+            x[i] = x[last];
+            y[i] = y[last];
+            z[i] = z[last];
+            age[i] = age[last];
+        }
+        forget(last);
+    }
+
+    /** Drops entity/world references so expired slots don't pin them. */
+    private void forget(int i) {
+        villager[i] = null;
+        world[i] = null;
+    }
+
+    private void grow() {
+        int n = Math.min(maxConcurrent, Math.max(16, kind.length * 2));
+        kind = Arrays.copyOf(kind, n);
+        villager = Arrays.copyOf(villager, n);
+        world = Arrays.copyOf(world, n);
+        x = Arrays.copyOf(x, n);
+        y = Arrays.copyOf(y, n);
+        z = Arrays.copyOf(z, n);
+        age = Arrays.copyOf(age, n);
+    }
+}
@@ -0,0 +1,308 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.entity.BlockDisplay;
+import org.bukkit.entity.Display;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Villager;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.util.Transformation;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+import java.util.*;
+
+/**
+ * Villager → POI links drawn with display entities the client renders on its own: a thin
+ * bar from the villager to the bed or workstation and a glowing copy of that block as an
+ * outline. Two entities per link, no per-tick particles. They are hidden from everyone
+ * except watchers, follow the villager every second, and go away when the link stops
+ * matching what the state store knows or the villager leaves.
+ * Driven from the global tick; entity work, including reading where a villager is, is
+ * handed to the owning region on region-threaded servers.
+ */
+final class LinkDisplays {
+
+    private static final float THICKNESS = 0.05f;
+    private static final int REFRESH_TICKS = 20;
+    private static final double FOLLOW_DISTANCE_SQ = 0.5 * 0.5;
+
+    /** The two entities showing one villager's HOME or JOB_SITE link. */
+    private static final class Shown {
+        final boolean home;
+        final int world;
+        final long pos;
+        BlockDisplay line;
+        BlockDisplay outline;
+        double ox, oy, oz;   // where the line starts
+        boolean removed;
+
+        Shown(boolean home, int world, long pos) {
+            this.home = home;
+            this.world = world;
+            this.pos = pos;
+        }
+    }
+
+    private final Plugin plugin;
+    private final Schedulers schedulers;
+    private final WatchService watch;
+    private final VillagerRegistry registry;
+    private final LinkStateStore states;
+    private final WorldIds worlds;
+
+    /** Per villager: [0] HOME, [1] JOB_SITE; insertion order, so the oldest go first at the cap. */
+    private final LinkedHashMap<UUID, Shown[]> byVillager = new LinkedHashMap<>();
+    private final Set<UUID> viewers = new HashSet<>();
+    private int links = 0;
+    private int tick = 0;
+
+    private boolean enabled;
+    private int maxLinks = 128;
+    private BlockData homeLine;
+    private BlockData jobLine;
+
+    LinkDisplays(Plugin plugin, Schedulers schedulers, WatchService watch, VillagerRegistry registry,
+                 LinkStateStore states, WorldIds worlds) {
+        this.plugin = plugin;
+        this.schedulers = schedulers;
+        this.watch = watch;
+        this.registry = registry;
+        this.states = states;
+        this.worlds = worlds;
+    }
+
+    synchronized void configure(boolean enabled, int maxLinks, Material homeLine, Material jobLine) {
+        this.enabled = enabled;
+        this.maxLinks = Math.max(1, maxLinks);
+        this.homeLine = homeLine.createBlockData();
+        this.jobLine = jobLine.createBlockData();
+        if (!enabled) clear();
+    }
+
+    /**
+     * Draws (or redraws) the links that just changed; null locations are left as they are.
+     * Call on the villager's thread: the line starts at its current position.
+     */
+    synchronized void show(Villager v, Location home, Location job) {
+        if (!enabled || !watch.hasWatchers()) return;
+        Shown[] pair = byVillager.remove(v.getUniqueId()); // re-inserted at the end: most recent
+        if (pair == null) pair = new Shown[2];
+        byVillager.put(v.getUniqueId(), pair);
+        if (home != null) replace(v, pair, 0, home);
+        if (job != null) replace(v, pair, 1, job);
+        while (links > maxLinks) removeOldest();
+    }
+
+    /** The villager unloaded or died. */
+    synchronized void remove(UUID villager) {
+        Shown[] pair = byVillager.remove(villager);
+        if (pair == null) return;
+        drop(pair, 0);
+        drop(pair, 1);
+    }
+
+    /** Call once per tick; keeps viewers, line starts and stale links in step once a second. */
+    synchronized void tick() {
+        if (!enabled || ++tick % REFRESH_TICKS != 0) return;
+        syncViewers();
+
+        Iterator<Map.Entry<UUID, Shown[]>> it = byVillager.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<UUID, Shown[]> e = it.next();
+            Shown[] pair = e.getValue();
+            Villager v = registry.get(e.getKey());
+            int slot = states.slotOf(e.getKey());
+            for (int k = 0; k < 2; k++) {
+                Shown s = pair[k];
+                if (s == null) continue;
+                boolean current = v != null && v.isValid() && slot >= 0
+                        && (s.home ? states.homeWorld(slot) == s.world && states.home(slot) == s.pos
+                                   : states.jobWorld(slot) == s.world && states.job(slot) == s.pos);
+                if (!current) drop(pair, k);
+                else follow(v, s);
+            }
+            if (pair[0] == null && pair[1] == null) it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        for (Shown[] pair : byVillager.values()) {
+            drop(pair, 0);
+            drop(pair, 1);
+        }
+        byVillager.clear();
+        viewers.clear();
+    }
+
+    synchronized int links() {
+        return links;
+    }
+
+    // ---- internals ----
+
+    private void replace(Villager v, Shown[] pair, int k, Location poi) {
+        int world = worlds.idOf(poi.getWorld());
+        long pos = PackedPos.pack(poi.getBlockX(), poi.getBlockY(), poi.getBlockZ());
+        if (pair[k] != null && pair[k].world == world && pair[k].pos == pos) return;
+        drop(pair, k);
+        Shown s = new Shown(k == 0, world, pos);
+        pair[k] = s;
+        links++;
+
+        Location from = v.getLocation().add(0, 1.0, 0);
+        s.ox = from.getX();
+        s.oy = from.getY();
+        s.oz = from.getZ();
+        World w = poi.getWorld();
+        Location corner = new Location(w, poi.getBlockX(), poi.getBlockY(), poi.getBlockZ());
+        BlockData lineBlock = s.home ? homeLine : jobLine;
+        Color glow = s.home ? Color.AQUA : Color.FUCHSIA;
+
+        schedulers.atLocation(from, () -> {
+            BlockDisplay line = w.spawn(from, BlockDisplay.class, d -> {
+                d.setVisibleByDefault(false);
+                d.setPersistent(false);
+                d.setBlock(lineBlock);
+                d.setBrightness(new Display.Brightness(15, 15));
+                d.setTransformation(lineShape(poi.getBlockX() + 0.5 - from.getX(),
+                        poi.getBlockY() + 0.5 - from.getY(), poi.getBlockZ() + 0.5 - from.getZ()));
+            });
+            attach(s, line, true);
+        });
+        schedulers.atLocation(corner, () -> {
+            BlockData block = corner.getBlock().getBlockData();
+            BlockDisplay outline = w.spawn(corner, BlockDisplay.class, d -> {
+                d.setVisibleByDefault(false);
+                d.setPersistent(false);
+                d.setBlock(block);
+                d.setGlowing(true);
+                d.setGlowColorOverride(glow);
+                d.setTransformation(new Transformation(new Vector3f(-0.01f, -0.01f, -0.01f), new Quaternionf(),
+                        new Vector3f(1.02f, 1.02f, 1.02f), new Quaternionf()));
+            });
+            attach(s, outline, false);
+        });
+    }
+
+    /** Runs on the spawning thread; a link dropped in the meantime takes its entity with it. */
+    private void attach(Shown s, BlockDisplay d, boolean line) {
+        boolean keep;
+        synchronized (this) {
+            keep = !s.removed;
+            if (keep) {
+                if (line) s.line = d;
+                else s.outline = d;
+            }
+        }
+        if (!keep) {
+            d.remove();
+            return;
+        }
+        for (Player p : watch.watchers()) {
+            if (p.isOnline()) schedulers.onEntity(p, () -> p.showEntity(plugin, d));
+        }
+    }
+
+    private void drop(Shown[] pair, int k) {
+        Shown s = pair[k];
+        if (s == null) return;
+        pair[k] = null;
+        s.removed = true;
+        links--;
+        discard(s.line);
+        discard(s.outline);
+    }
+
+    private void removeOldest() {
+        Iterator<Shown[]> it = byVillager.values().iterator();
+        if (!it.hasNext()) return;
+        Shown[] pair = it.next();
+        it.remove();
+        drop(pair, 0);
+        drop(pair, 1);
+    }
+
+    private void discard(BlockDisplay d) {
+        if (d == null) return;
+        try {
+            schedulers.onEntity(d, d::remove);
+        } catch (RuntimeException e) {
+            d.remove(); // plugin disabling: the scheduler won't take tasks any more
+        }
+    }
+
+    /** Moves the start of the line back onto a villager that has walked away from it. */
+    private void follow(Villager v, Shown s) {
+        if (s.line == null) return;
+        // The villager's position is only read on its own thread
+        schedulers.onEntity(v, () -> {
+            if (!v.isValid()) return;
+            Location at = v.getLocation().add(0, 1.0, 0);
+            BlockDisplay line;
+            synchronized (this) {
+                if (s.removed) return;
+                double mx = at.getX() - s.ox, my = at.getY() - s.oy, mz = at.getZ() - s.oz;
+                if (mx * mx + my * my + mz * mz < FOLLOW_DISTANCE_SQ) return;
+                s.ox = at.getX();
+                s.oy = at.getY();
+                s.oz = at.getZ();
+                line = s.line;
+            }
+            Transformation shape = lineShape(PackedPos.x(s.pos) + 0.5 - at.getX(),
+                    PackedPos.y(s.pos) + 0.5 - at.getY(), PackedPos.z(s.pos) + 0.5 - at.getZ());
+            schedulers.onEntity(line, () -> {
+                line.teleport(at);
+                line.setTransformation(shape);
+            });
+        });
+    }
+
+    /** Shows every link to players who started watching and hides them from those who stopped. */
+    private void syncViewers() {
+        watch.refresh();
+        Set<UUID> now = new HashSet<>();
+        for (Player p : watch.watchers()) {
+            now.add(p.getUniqueId());
+            if (!viewers.contains(p.getUniqueId())) setVisible(p, true);
+        }
+        for (UUID id : viewers) {
+            if (now.contains(id)) continue;
+            Player p = plugin.getServer().getPlayer(id);
+            if (p != null && p.isOnline()) setVisible(p, false);
+        }
+        viewers.clear();
+        viewers.addAll(now);
+    }
+
+    private void setVisible(Player p, boolean visible) {
+        List<BlockDisplay> all = new ArrayList<>();
+        for (Shown[] pair : byVillager.values()) {
+            for (Shown s : pair) {
+                if (s == null) continue;
+                if (s.line != null) all.add(s.line);
+                if (s.outline != null) all.add(s.outline);
+            }
+        }
+        if (all.isEmpty()) return;
+        schedulers.onEntity(p, () -> {
+            for (BlockDisplay d : all) {
+                if (visible) p.showEntity(plugin, d);
+                else p.hideEntity(plugin, d);
+            }
+        });
+    }
+
+    /** A THICKNESS-wide bar from the origin along (dx, dy, dz). */
+    private static Transformation lineShape(double dx, double dy, double dz) {
+        float len = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (len < 1e-3f) return new Transformation(new Vector3f(), new Quaternionf(), new Vector3f(), new Quaternionf());
+        Quaternionf rot = new Quaternionf().rotationTo(0, 0, 1, (float) dx / len, (float) dy / len, (float) dz / len);
+        Vector3f offset = rot.transform(new Vector3f(-THICKNESS / 2, -THICKNESS / 2, 0));
+        return new Transformation(offset, rot, new Vector3f(THICKNESS, THICKNESS, len), new Quaternionf());
+    }
+}
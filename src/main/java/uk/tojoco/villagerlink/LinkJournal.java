@@ -0,0 +1,388 @@
+package uk.tojoco.villagerlink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Every HOME / JOB_SITE change the scan confirmed and every link made with the stick,
+ * newest last, for {@code /villagerlink history}. In memory it is a fixed-size ring of
+ * parallel primitive arrays; each record points back to the same villager's previous
+ * one, so a villager's history is a short walk from its newest record and never a
+ * search. Appending only touches memory. {@link #flush} (async) appends whatever is
+ * new to a rolling binary file, and {@link #restore} reads the files back on startup.
+ *
+ * <p>File layout: a {@value #HEADER_BYTES}-byte header (magic, version, world table)
+ * followed by fixed-width {@value #RECORD_BYTES}-byte records. When the current file
+ * would pass its size limit it becomes {@code journal.1.bin}, older ones shift up, and
+ * the oldest is deleted.
+ */
+final class LinkJournal {
+
+    static final byte SCAN = 0;
+    static final byte STICK = 1;
+
+    /** One record, as handed to {@link #history} callers. */
+    record Record(long timeMillis, UUID villager, boolean home, byte source,
+                  int oldWorld, long oldPos, int newWorld, long newPos) {
+    }
+
+    private static final int MAGIC = 0x564C4A31; // "VLJ1"
+    private static final int VERSION = 1;
+    private static final int MAX_WORLDS = 64;
+    private static final int HEADER_BYTES = 32 + MAX_WORLDS * 16;
+    private static final int RECORD_BYTES = 48;
+
+    // header offsets
+    private static final int H_MAGIC = 0, H_VERSION = 4, H_WORLDS = 8, H_WORLD_TABLE = 32;
+    // record offsets
+    private static final int R_TIME = 0, R_MSB = 8, R_LSB = 16, R_OLD = 24, R_NEW = 32,
+            R_OLD_WORLD = 40, R_NEW_WORLD = 42, R_FLAGS = 44;
+    private static final int F_HOME = 1, SOURCE_SHIFT = 1;
+
+    private final Path dir;
+    private final WorldIds worlds;
+    private final Logger log;
+
+    // ---- ring, guarded by this ----
+    private int capacity;
+    private long[] time;
+    private UUID[] ids;
+    private long[] oldPos, newPos;
+    private int[] oldWorld, newWorld;
+    private byte[] flags;
+    private long[] prevSeq;                 // same villager's previous record, or -1
+    private final Map<UUID, Long> newest = new HashMap<>();
+    private long total = 0;                 // records ever appended; the next one's sequence number
+    private long written = 0;               // records before this one are on disk (or given up on)
+
+    // ---- file, guarded by fileLock (the tick thread never takes it) ----
+    private final Object fileLock = new Object();
+    private volatile int maxFileBytes;
+    private volatile int files;
+    private FileChannel channel;
+    private final UUID[] fileWorlds = new UUID[MAX_WORLDS];
+    private int fileWorldCount;
+    private boolean warned;
+    private boolean restored;               // nothing is written before the old files are read
+
+    LinkJournal(Path dir, WorldIds worlds, Logger log) {
+        this.dir = dir;
+        this.worlds = worlds;
+        this.log = log;
+        allocate(1024);
+    }
+
+    /**
+     * @param entries      records kept in memory
+     * @param maxFileBytes size a journal file may reach before it rolls over
+     * @param files        journal files kept on disk; 0 keeps the journal in memory only
+     */
+    void configure(int entries, int maxFileBytes, int files) {
+        this.maxFileBytes = Math.max(HEADER_BYTES + RECORD_BYTES, maxFileBytes);
+        this.files = Math.max(0, files);
+        synchronized (this) {
+            int n = Math.max(16, entries);
+            if (n != capacity) rebuild(n, List.of());
+        }
+    }
+
+    void append(UUID villager, boolean home, byte source, int fromWorld, long from, int toWorld, long to) {
+        append(System.currentTimeMillis(), villager, home, source, fromWorld, from, toWorld, to);
+    }
+
+    /**
+     * Records a change the scan confirmed, unless the villager's last record of that kind
+     * is a stick link to the same POI: that is the scan seeing the stick's own change.
+     */
+    synchronized void appendScan(UUID villager, boolean home, int fromWorld, long from, int toWorld, long to) {
+        Long head = newest.get(villager);
+        for (long seq = head == null ? -1 : head; seq >= 0 && seq >= total - capacity;
+             seq = prevSeq[(int) (seq % capacity)]) {
+            int s = (int) (seq % capacity);
+            if (((flags[s] & F_HOME) != 0) != home) continue;
+            if (flags[s] >> SOURCE_SHIFT == STICK && newWorld[s] == toWorld && newPos[s] == to) return;
+            break;
+        }
+        append(villager, home, SCAN, fromWorld, from, toWorld, to);
+    }
+
+    /** This villager's records, newest first, at most {@code limit}. */
+    synchronized List<Record> history(UUID villager, int limit) {
+        List<Record> out = new ArrayList<>();
+        Long head = newest.get(villager);
+        for (long seq = head == null ? -1 : head; seq >= 0 && seq >= total - capacity && out.size() < limit;
+             seq = prevSeq[(int) (seq % capacity)]) {
+            out.add(record((int) (seq % capacity)));
+        }
+        return out;
+    }
+
+    /** The one villager in the journal whose UUID starts with {@code prefix}, or null if none or several do. */
+    synchronized UUID find(String prefix) {
+        String p = prefix.toLowerCase(Locale.ROOT);
+        UUID match = null;
+        for (UUID id : newest.keySet()) {
+            if (!id.toString().startsWith(p)) continue;
+            if (match != null) return null;
+            match = id;
+        }
+        return match;
+    }
+
+    synchronized int size() {
+        return (int) Math.min(total, capacity);
+    }
+
+    synchronized long appended() {
+        return total;
+    }
+
+    /** Appends everything new since the last flush to the current file. Call off the tick thread. */
+    void flush() {
+        synchronized (fileLock) {
+            if (!restored) return;
+            if (files == 0) {
+                closeFile();
+                synchronized (this) {
+                    written = total;
+                }
+                return;
+            }
+            ByteBuffer buf;
+            synchronized (this) {
+                long from = Math.max(written, total - capacity);
+                int n = (int) (total - from);
+                if (n == 0) return;
+                buf = ByteBuffer.allocate(n * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                for (long seq = from; seq < total; seq++) {
+                    // Runtime world ids for now; they become file world indexes below
+                    int s = (int) (seq % capacity), at = (int) (seq - from) * RECORD_BYTES;
+                    buf.putLong(at + R_TIME, time[s]);
+                    buf.putLong(at + R_MSB, ids[s].getMostSignificantBits());
+                    buf.putLong(at + R_LSB, ids[s].getLeastSignificantBits());
+                    buf.putLong(at + R_OLD, oldPos[s]);
+                    buf.putLong(at + R_NEW, newPos[s]);
+                    buf.putShort(at + R_OLD_WORLD, (short) oldWorld[s]);
+                    buf.putShort(at + R_NEW_WORLD, (short) newWorld[s]);
+                    buf.put(at + R_FLAGS, flags[s]);
+                }
+                written = total;
+            }
+            try {
+                write(buf);
+            } catch (IOException e) {
+                if (!warned) log.log(Level.WARNING, "Could not write the link journal; history stays in memory only.", e);
+                warned = true;
+                closeFile();
+            }
+        }
+    }
+
+    /**
+     * Loads the newest records from the journal files into the ring, ahead of anything
+     * appended since startup. Call once, off the tick thread; {@link #flush} writes nothing until it has run.
+     */
+    void restore() {
+        synchronized (fileLock) {
+            restored = true;
+            if (files == 0) return;
+            List<Record> loaded = new ArrayList<>();
+            for (int i = files - 1; i >= 0; i--) {
+                Path f = file(i);
+                if (!Files.exists(f)) continue;
+                try {
+                    read(f, loaded);
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Skipping unreadable " + f.getFileName() + ".", e);
+                }
+            }
+            synchronized (this) {
+                rebuild(capacity, loaded);
+            }
+        }
+    }
+
+    void close() {
+        synchronized (fileLock) {
+            closeFile();
+        }
+    }
+
+    // ---- ring ----
+
+    private synchronized void append(long millis, UUID villager, boolean home, byte source,
+                                     int fromWorld, long from, int toWorld, long to) {
+        int s = (int) (total % capacity);
+        if (total >= capacity) {
+            // Overwriting the oldest record; its villager may have nothing newer left
+            long old = total - capacity;
+            Long head = newest.get(ids[s]);
+            if (head != null && head == old) newest.remove(ids[s]);
+        }
+        Long prev = newest.put(villager, total);
+        time[s] = millis;
+        ids[s] = villager;
+        oldWorld[s] = fromWorld;
+        oldPos[s] = from;
+        newWorld[s] = toWorld;
+        newPos[s] = to;
+        flags[s] = (byte) ((home ? F_HOME : 0) | source << SOURCE_SHIFT);
+        prevSeq[s] = prev == null ? -1 : prev;
+        total++;
+    }
+
+    private Record record(int s) {
+        return new Record(time[s], ids[s], (flags[s] & F_HOME) != 0, (byte) (flags[s] >> SOURCE_SHIFT),
+                oldWorld[s], oldPos[s], newWorld[s], newPos[s]);
+    }
+
+    /**
+     * Starts the ring over at {@code newCapacity} with {@code older} first and then the
+     * records it held. Records that were still waiting for the disk stay waiting.
+     */
+    private void rebuild(int newCapacity, List<Record> older) {
+        List<Record> current = new ArrayList<>();
+        for (long seq = Math.max(0, total - capacity); seq < total; seq++) current.add(record((int) (seq % capacity)));
+        long unwritten = Math.min(current.size(), total - written);
+
+        allocate(newCapacity);
+        newest.clear();
+        total = 0;
+        for (List<Record> part : List.of(older, current)) {
+            for (int i = Math.max(0, part.size() - newCapacity); i < part.size(); i++) {
+                Record r = part.get(i);
+                append(r.timeMillis(), r.villager(), r.home(), r.source(), r.oldWorld(), r.oldPos(), r.newWorld(), r.newPos());
+            }
+        }
+        written = Math.max(0, total - unwritten);
+    }
+
+    private void allocate(int n) {
+        capacity = n;
+        time = new long[n];
+        ids = new UUID[n];
+        oldPos = new long[n];
+        newPos = new long[n];
+        oldWorld = new int[n];
+        newWorld = new int[n];
+        flags = new byte[n];
+        prevSeq = new long[n];
+    }
+
+    // ---- file ----
+
+    private Path file(int i) {
+        return dir.resolve(i == 0 ? "journal.bin" : "journal." + i + ".bin");
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        int n = buf.capacity() / RECORD_BYTES;
+        for (int i = 0; i < n; ) {
+            if (channel == null || channel.size() + RECORD_BYTES > maxFileBytes) roll();
+            // As many records as still fit in this file, in one write
+            int k = (int) Math.min(n - i, Math.max(1, (maxFileBytes - channel.size()) / RECORD_BYTES));
+            for (int j = i; j < i + k; j++) {
+                int at = j * RECORD_BYTES;
+                buf.putShort(at + R_OLD_WORLD, fileWorld(buf.getShort(at + R_OLD_WORLD)));
+                buf.putShort(at + R_NEW_WORLD, fileWorld(buf.getShort(at + R_NEW_WORLD)));
+            }
+            ByteBuffer part = buf.slice(i * RECORD_BYTES, k * RECORD_BYTES);
+            long pos = channel.size();
+            while (part.hasRemaining()) pos += channel.write(part, pos);
+            i += k;
+        }
+    }
+
+    /** Opens the current file, first moving it aside if it is full. */
+    private void roll() throws IOException {
+        Files.createDirectories(dir);
+        closeFile();
+        Path current = file(0);
+        boolean full = Files.exists(current) && Files.size(current) + RECORD_BYTES > maxFileBytes;
+        if (full) {
+            Files.deleteIfExists(file(files - 1));
+            for (int i = files - 2; i >= 0; i--) {
+                if (Files.exists(file(i))) Files.move(file(i), file(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        channel = FileChannel.open(current, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() >= HEADER_BYTES && readHeader(channel)) {
+            // Drop a torn record at the end, if any
+            long records = (channel.size() - HEADER_BYTES) / RECORD_BYTES;
+            channel.truncate(HEADER_BYTES + records * RECORD_BYTES);
+            return;
+        }
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        h.putInt(H_MAGIC, MAGIC);
+        h.putInt(H_VERSION, VERSION);
+        channel.truncate(0);
+        channel.write(h, 0);
+        fileWorldCount = 0;
+    }
+
+    private void closeFile() {
+        if (channel == null) return;
+        try { channel.close(); } catch (IOException ignored) { }
+        channel = null;
+    }
+
+    private boolean readHeader(FileChannel ch) throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        ch.read(h, 0);
+        if (h.getInt(H_MAGIC) != MAGIC || h.getInt(H_VERSION) != VERSION) return false;
+        fileWorldCount = Math.min(MAX_WORLDS, h.getInt(H_WORLDS));
+        for (int i = 0; i < fileWorldCount; i++) {
+            fileWorlds[i] = new UUID(h.getLong(H_WORLD_TABLE + i * 16), h.getLong(H_WORLD_TABLE + i * 16 + 8));
+        }
+        return true;
+    }
+
+    private void read(Path f, List<Record> out) throws IOException {
+        try (FileChannel ch = FileChannel.open(f, StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_BYTES || !readHeader(ch)) return;
+            long records = (ch.size() - HEADER_BYTES) / RECORD_BYTES;
+            ByteBuffer buf = ByteBuffer.allocate((int) records * RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            ch.read(buf, HEADER_BYTES);
+            for (int i = 0; i < records; i++) {
+                int at = i * RECORD_BYTES;
+                byte fl = buf.get(at + R_FLAGS);
+                out.add(new Record(buf.getLong(at + R_TIME),
+                        new UUID(buf.getLong(at + R_MSB), buf.getLong(at + R_LSB)),
+                        (fl & F_HOME) != 0, (byte) (fl >> SOURCE_SHIFT),
+                        runtimeWorld(buf.getShort(at + R_OLD_WORLD)), buf.getLong(at + R_OLD),
+                        runtimeWorld(buf.getShort(at + R_NEW_WORLD)), buf.getLong(at + R_NEW)));
+            }
+        } finally {
+            fileWorldCount = 0; // the current file's table is read again when it is opened
+        }
+    }
+
+    private short fileWorld(int runtimeId) throws IOException {
+        UUID uid = runtimeId == WorldIds.NONE ? null : worlds.uid(runtimeId);
+        if (uid == null) return -1;
+        for (int i = 0; i < fileWorldCount; i++) {
+            if (uid.equals(fileWorlds[i])) return (short) i;
+        }
+        if (fileWorldCount == MAX_WORLDS) return -1;
+        int i = fileWorldCount++;
+        fileWorlds[i] = uid;
+        ByteBuffer e = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        e.putLong(0, uid.getMostSignificantBits()).putLong(8, uid.getLeastSignificantBits());
+        channel.write(e, H_WORLD_TABLE + i * 16L);
+        channel.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, fileWorldCount), H_WORLDS);
+        return (short) i;
+    }
+
+    private int runtimeWorld(short fileId) {
+        return fileId < 0 || fileId >= fileWorldCount ? WorldIds.NONE : worlds.idOf(fileWorlds[fileId]);
+    }
+}
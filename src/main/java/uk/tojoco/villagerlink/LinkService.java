@@ -0,0 +1,55 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.util.List;
+import java.util.UUID;
+
+/** {@link VillagerLinkService} backed by the state store and the POI index. */
+final class LinkService implements VillagerLinkService {
+
+    private final LinkStateStore states;
+    private final PoiIndex claims;
+    private final WorldIds worlds;
+
+    LinkService(LinkStateStore states, PoiIndex claims, WorldIds worlds) {
+        this.states = states;
+        this.claims = claims;
+        this.worlds = worlds;
+    }
+
+    @Override
+    public boolean isTracked(UUID villager) {
+        return states.slotOf(villager) >= 0;
+    }
+
+    @Override
+    public Location getHome(UUID villager) {
+        synchronized (states) {
+            int slot = states.slotOf(villager);
+            return slot < 0 ? null : location(states.homeWorld(slot), states.home(slot));
+        }
+    }
+
+    @Override
+    public Location getJobSite(UUID villager) {
+        synchronized (states) {
+            int slot = states.slotOf(villager);
+            return slot < 0 ? null : location(states.jobWorld(slot), states.job(slot));
+        }
+    }
+
+    @Override
+    public List<UUID> getClaimants(Location poi) {
+        if (poi.getWorld() == null) return List.of();
+        return claims.claimants(worlds.idOf(poi.getWorld()),
+                PackedPos.pack(poi.getBlockX(), poi.getBlockY(), poi.getBlockZ()));
+    }
+
+    private Location location(int worldId, long pos) {
+        if (worldId == WorldIds.NONE) return null;
+        World w = worlds.world(worldId);
+        return w == null ? null : new Location(w, PackedPos.x(pos), PackedPos.y(pos), PackedPos.z(pos));
+    }
+}
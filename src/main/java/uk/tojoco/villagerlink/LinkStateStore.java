@@ -0,0 +1,247 @@
+package uk.tojoco.villagerlink;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Last known HOME / JOB_SITE and last trigger tick for every tracked villager, plus
+ * the change it is waiting to confirm and how often it has churned lately.
+ * One slot per villager in parallel primitive arrays; positions are {@link PackedPos}
+ * longs plus a {@link WorldIds} id, so there is no boxing and no per-villager Optional.
+ * Entries are evicted when the villager leaves the world and the store never grows
+ * past its configured bound. Every method locks the store; callers that need several
+ * reads and writes to be consistent hold the store's monitor around them.
+ */
+final class LinkStateStore {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final Map<UUID, Integer> slotById = new HashMap<>();
+
+    private UUID[] owner = new UUID[INITIAL_CAPACITY];
+    private long[] home = new long[INITIAL_CAPACITY];
+    private long[] job = new long[INITIAL_CAPACITY];
+    private int[] homeWorld = new int[INITIAL_CAPACITY];
+    private int[] jobWorld = new int[INITIAL_CAPACITY];
+    private int[] lastTrigger = new int[INITIAL_CAPACITY];
+    // Stability: an unconfirmed change and the number of scans that agreed with it (0 = none)
+    private long[] pendHome = new long[INITIAL_CAPACITY];
+    private long[] pendJob = new long[INITIAL_CAPACITY];
+    private int[] pendHomeWorld = new int[INITIAL_CAPACITY];
+    private int[] pendJobWorld = new int[INITIAL_CAPACITY];
+    private byte[] pendScans = new byte[INITIAL_CAPACITY];
+    // Churn (commits and reverts) counted since churnStart
+    private short[] churn = new short[INITIAL_CAPACITY];
+    private int[] churnStart = new int[INITIAL_CAPACITY];
+
+    private int[] free = new int[INITIAL_CAPACITY];
+    private int freeCount = 0;
+    private int highWater = 0;
+    private int clockHand = 0;
+    private int maxEntries = Integer.MAX_VALUE;
+    private long evictions = 0;
+    private Consumer<UUID> evictionHook = id -> {};
+
+    /** Called, under the store's lock, with every villager evicted or capped out of the store. */
+    void onEviction(Consumer<UUID> hook) {
+        this.evictionHook = hook;
+    }
+
+    synchronized void setMaxEntries(int max) {
+        this.maxEntries = Math.max(1, max);
+        while (slotById.size() > maxEntries) evictOne();
+    }
+
+    synchronized int slotOf(UUID id) {
+        Integer s = slotById.get(id);
+        return s == null ? -1 : s;
+    }
+
+    /** Adds a baseline record for a villager seen for the first time; returns its slot. */
+    synchronized int insert(UUID id, int homeWorldId, long homePos, int jobWorldId, long jobPos) {
+        if (slotById.size() >= maxEntries) evictOne();
+        int s = freeCount > 0 ? free[--freeCount] : highWater++;
+        if (s >= owner.length) grow();
+        owner[s] = id;
+        homeWorld[s] = homeWorldId;
+        home[s] = homePos;
+        jobWorld[s] = jobWorldId;
+        job[s] = jobPos;
+        lastTrigger[s] = Integer.MIN_VALUE;
+        pendScans[s] = 0;
+        churn[s] = 0;
+        slotById.put(id, s);
+        return s;
+    }
+
+    synchronized void evict(UUID id) {
+        Integer s = slotById.remove(id);
+        if (s != null) release(s);
+        evictionHook.accept(id); // also for villagers that only ever got a stick link
+    }
+
+    synchronized void clear() {
+        slotById.clear();
+        Arrays.fill(owner, null);
+        freeCount = 0;
+        highWater = 0;
+        clockHand = 0;
+    }
+
+    // ---- per-slot accessors ----
+
+    synchronized long home(int slot) { return home[slot]; }
+    synchronized int homeWorld(int slot) { return homeWorld[slot]; }
+    synchronized long job(int slot) { return job[slot]; }
+    synchronized int jobWorld(int slot) { return jobWorld[slot]; }
+    synchronized int lastTrigger(int slot) { return lastTrigger[slot]; }
+
+    synchronized void setHome(int slot, int worldId, long pos) {
+        homeWorld[slot] = worldId;
+        home[slot] = pos;
+    }
+
+    synchronized void setJob(int slot, int worldId, long pos) {
+        jobWorld[slot] = worldId;
+        job[slot] = pos;
+    }
+
+    synchronized void setLastTrigger(int slot, int tick) {
+        lastTrigger[slot] = tick;
+    }
+
+    // ---- stability ----
+
+    /** Scans that have agreed with the pending change so far; 0 when nothing is pending. */
+    synchronized int pendingScans(int slot) { return pendScans[slot]; }
+
+    synchronized boolean pendingMatches(int slot, int homeWorldId, long homePos, int jobWorldId, long jobPos) {
+        return pendScans[slot] > 0 && pendHomeWorld[slot] == homeWorldId && pendHome[slot] == homePos
+                && pendJobWorld[slot] == jobWorldId && pendJob[slot] == jobPos;
+    }
+
+    /** Starts waiting on a new candidate change, seen once so far. */
+    synchronized void setPending(int slot, int homeWorldId, long homePos, int jobWorldId, long jobPos) {
+        pendHomeWorld[slot] = homeWorldId;
+        pendHome[slot] = homePos;
+        pendJobWorld[slot] = jobWorldId;
+        pendJob[slot] = jobPos;
+        pendScans[slot] = 1;
+    }
+
+    /** One more scan agreed with the pending change; returns the new count. */
+    synchronized int confirmPending(int slot) {
+        if (pendScans[slot] < Byte.MAX_VALUE) pendScans[slot]++;
+        return pendScans[slot];
+    }
+
+    synchronized void clearPending(int slot) {
+        pendScans[slot] = 0;
+    }
+
+    /**
+     * Records one churn event (a committed change, or a pending one that reverted or
+     * switched) and returns how many there have been in the current window.
+     */
+    synchronized int noteChurn(int slot, int tick, int windowTicks) {
+        if (churn[slot] == 0 || (long) tick - churnStart[slot] > windowTicks) {
+            churnStart[slot] = tick;
+            churn[slot] = 0;
+        }
+        if (churn[slot] < Short.MAX_VALUE) churn[slot]++;
+        return churn[slot];
+    }
+
+    /** Receives one tracked villager's stored links. */
+    interface EntryVisitor {
+        void visit(UUID id, int homeWorld, long home, int jobWorld, long job);
+    }
+
+    /** Visits every tracked villager while holding the store's lock. */
+    synchronized void forEach(EntryVisitor visitor) {
+        for (int s = 0; s < highWater; s++) {
+            if (owner[s] != null) visitor.visit(owner[s], homeWorld[s], home[s], jobWorld[s], job[s]);
+        }
+    }
+
+    /** Sorted HOME and JOB_SITE positions in one world held by any tracked villager. */
+    synchronized long[] claims(int worldId) {
+        long[] out = new long[16];
+        int n = 0;
+        for (int s = 0; s < highWater; s++) {
+            if (owner[s] == null) continue;
+            if (n + 2 > out.length) out = Arrays.copyOf(out, out.length * 2);
+            if (homeWorld[s] == worldId) out[n++] = home[s];
+            if (jobWorld[s] == worldId) out[n++] = job[s];
+        }
+        out = Arrays.copyOf(out, n);
+        Arrays.sort(out);
+        return out;
+    }
+
+    // ---- stats ----
+
+    synchronized int size() {
+        return slotById.size();
+    }
+
+    synchronized int capacity() {
+        return owner.length;
+    }
+
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Rough heap estimate: the primitive arrays plus the UUID key, HashMap node and
+     * boxed slot index per live entry (compressed oops).
+     */
+    synchronized long footprintBytes() {
+        long arrays = (long) owner.length * (4 + 8 + 8 + 4 + 4 + 4 + 4 + 8 + 8 + 4 + 4 + 1 + 2 + 4);
+        long perEntry = 32 /* UUID */ + 32 /* HashMap.Node */ + 16 /* Integer */ + 4 /* table ref */;
+        return arrays + perEntry * slotById.size();
+    }
+
+    // ---- internals ----
+
+    /** Clock sweep over the slot array: drops whichever live entry the hand lands on. */
+    private void evictOne() {
+        if (highWater == 0) return;
+        for (int i = 0; i < highWater; i++) {
+            int s = clockHand;
+            clockHand = (clockHand + 1) % highWater;
+            if (owner[s] != null) {
+                UUID id = owner[s];
+                slotById.remove(id);
+                release(s);
+                evictions++;
+                evictionHook.accept(id);
+                return;
+            }
+        }
+    }
+
+    private void release(int s) {
+        owner[s] = null;
+        if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = s;
+    }
+
+    private void grow() {
+        int n = owner.length * 2;
+        owner = Arrays.copyOf(owner, n);
+        home = Arrays.copyOf(home, n);
+        job = Arrays.copyOf(job, n);
+        homeWorld = Arrays.copyOf(homeWorld, n);
+        jobWorld = Arrays.copyOf(jobWorld, n);
+        lastTrigger = Arrays.copyOf(lastTrigger, n);
+        pendHome = Arrays.copyOf(pendHome, n);
+        pendJob = Arrays.copyOf(pendJob, n);
+        pendHomeWorld = Arrays.copyOf(pendHomeWorld, n);
+        pendJobWorld = Arrays.copyOf(pendJobWorld, n);
+        pendScans = Arrays.copyOf(pendScans, n);
+        churn = Arrays.copyOf(churn, n);
+        churnStart = Arrays.copyOf(churnStart, n);
+    }
+}
@@ -0,0 +1,206 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Villager;
+import org.bukkit.entity.memory.MemoryKey;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Turns a villager's HOME / JOB_SITE memory into a (world id, packed block pos) pair.
+ * Paper normally hands back a Location, which is read straight into ints. Builds that
+ * leak the raw GlobalPos / BlockPos get an accessor resolved once per concrete class;
+ * parsing {@code toString()} is kept only as the last resort and is counted.
+ */
+final class MemoryDecoder {
+
+    /** Reusable output of {@link #decode}; {@code world} is {@link WorldIds#NONE} when the memory is unset. */
+    static final class Result {
+        int world;
+        long pos;
+    }
+
+    /** Reads a GlobalPos-like or BlockPos-like object into primitives. */
+    private interface Accessor {
+        boolean read(Object raw, Villager v, Result out) throws Throwable;
+    }
+
+    private static final Accessor UNSUPPORTED = (raw, v, out) -> false;
+    private static final MethodType TO_OBJECT = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType TO_LONG = MethodType.methodType(long.class, Object.class);
+
+    private final WorldIds worlds;
+    private final Map<Class<?>, Accessor> accessors = new ConcurrentHashMap<>();
+    /** Dimension key object (interned by the server) to world id. */
+    private final Map<Object, Integer> dimensions = new ConcurrentHashMap<>();
+
+    private final LongAdder typedDecodes = new LongAdder();
+    private final LongAdder accessorDecodes = new LongAdder();
+    private final LongAdder fallbackDecodes = new LongAdder();
+    private final LongAdder failedDecodes = new LongAdder();
+
+    MemoryDecoder(WorldIds worlds) {
+        this.worlds = worlds;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    void decode(Villager v, MemoryKey<Location> key, Result out) {
+        Object raw = v.getMemory((MemoryKey) key);      // normally a Location; older builds may wrap it
+        if (raw instanceof Optional<?> opt) raw = opt.orElse(null);
+
+        if (raw == null) {
+            unset(out);
+            return;
+        }
+        if (raw instanceof Location loc) {
+            World w = loc.getWorld();
+            out.world = worlds.idOf(w != null ? w : v.getWorld());
+            out.pos = PackedPos.pack(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+            typedDecodes.increment();
+            return;
+        }
+
+        Accessor a = accessors.computeIfAbsent(raw.getClass(), this::resolve);
+        try {
+            if (a.read(raw, v, out)) {
+                accessorDecodes.increment();
+                return;
+            }
+        } catch (Throwable t) {
+            accessors.put(raw.getClass(), UNSUPPORTED);
+        }
+
+        if (parseFallback(raw.toString(), out)) {
+            out.world = worlds.idOf(v.getWorld());
+            fallbackDecodes.increment();
+        } else {
+            unset(out);
+            failedDecodes.increment();
+        }
+    }
+
+    long typedDecodes() { return typedDecodes.sum(); }
+    long accessorDecodes() { return accessorDecodes.sum(); }
+    long fallbackDecodes() { return fallbackDecodes.sum(); }
+    long failedDecodes() { return failedDecodes.sum(); }
+
+    private static void unset(Result out) {
+        out.world = WorldIds.NONE;
+        out.pos = 0L;
+    }
+
+    // ---- accessors ----
+
+    /** Looks for GlobalPos#pos()/#dimension() or BlockPos#asLong() on the memory's class. */
+    private Accessor resolve(Class<?> type) {
+        try {
+            Method pos = publicMethod(type, "pos");
+            if (pos != null) {
+                Method asLong = publicMethod(pos.getReturnType(), "asLong");
+                if (asLong == null) return UNSUPPORTED;
+                MethodHandle posH = MethodHandles.publicLookup().unreflect(pos).asType(TO_OBJECT);
+                MethodHandle asLongH = MethodHandles.publicLookup().unreflect(asLong).asType(TO_LONG);
+                Method dim = publicMethod(type, "dimension");
+                MethodHandle dimH = dim == null ? null : MethodHandles.publicLookup().unreflect(dim).asType(TO_OBJECT);
+                return (raw, v, out) -> {
+                    // Vanilla BlockPos#asLong uses the same layout as PackedPos
+                    out.pos = (long) asLongH.invokeExact((Object) posH.invokeExact(raw));
+                    out.world = dimH == null ? worlds.idOf(v.getWorld())
+                            : dimensionId((Object) dimH.invokeExact(raw), v);
+                    return true;
+                };
+            }
+            Method asLong = publicMethod(type, "asLong");
+            if (asLong != null) {
+                MethodHandle asLongH = MethodHandles.publicLookup().unreflect(asLong).asType(TO_LONG);
+                return (raw, v, out) -> {
+                    out.pos = (long) asLongH.invokeExact(raw);
+                    out.world = worlds.idOf(v.getWorld());
+                    return true;
+                };
+            }
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+        }
+        return UNSUPPORTED;
+    }
+
+    private static Method publicMethod(Class<?> type, String name) {
+        try {
+            Method m = type.getMethod(name);
+            return m.getParameterCount() == 0 ? m : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * World id for a dimension key, matched once by its "namespace:path" text
+     * (e.g. ResourceKey[minecraft:dimension / minecraft:overworld]).
+     */
+    private int dimensionId(Object dimension, Villager v) {
+        Integer id = dimensions.get(dimension);
+        if (id != null) return id;
+        String text = dimension.toString();
+        int found = worlds.idOf(v.getWorld());
+        for (World w : Bukkit.getWorlds()) {
+            String key = w.getKey().toString();
+            if (text.endsWith(" " + key + "]") || text.equals(key)) {
+                found = worlds.idOf(w);
+                break;
+            }
+        }
+        dimensions.put(dimension, found);
+        return found;
+    }
+
+    // ---- last resort ----
+
+    /**
+     * Reads the first three integers after the position part of a memory's text, e.g.
+     * "GlobalPos{dimension=minecraft:overworld, pos=(x,y,z)}" or
+     * "ResourceKey[...] BlockPos{x=1, y=64, z=-3}", without substring/split.
+     */
+    static boolean parseFallback(String s, Result out) {
+        int i = s.indexOf("BlockPos");
+        if (i < 0) i = s.indexOf('(');
+        if (i < 0) return false;
+
+        int x = 0, y = 0, z = 0;
+        int found = 0;
+        int n = s.length();
+        while (found < 3 && i < n) {
+            char c = s.charAt(i);
+            boolean neg = c == '-' && i + 1 < n && Character.isDigit(s.charAt(i + 1));
+            if (!neg && !Character.isDigit(c)) { i++; continue; }
+            if (neg) i++;
+            long value = 0;
+            while (i < n && Character.isDigit(s.charAt(i))) {
+                value = value * 10 + (s.charAt(i) - '0');
+                i++;
+            }
+            // Skip any fractional part ("12.0")
+            if (i < n && s.charAt(i) == '.') {
+                i++;
+                while (i < n && Character.isDigit(s.charAt(i))) i++;
+            }
+            int v = (int) (neg ? -value : value);
+            switch (found++) {
+                case 0 -> x = v;
+                case 1 -> y = v;
+                default -> z = v;
+            }
+        }
+        if (found < 3) return false;
+        out.pos = PackedPos.pack(x, y, z);
+        return true;
+    }
+}
@@ -0,0 +1,37 @@
+package uk.tojoco.villagerlink;
+
+/**
+ * Block positions packed into a single long, using the same bit layout as vanilla's
+ * BlockPos#asLong (26 bits x, 26 bits z, 12 bits y).
+ */
+final class PackedPos {
+
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
+    private static final long XZ_MASK = (1L << XZ_BITS) - 1;
+    private static final long Y_MASK = (1L << Y_BITS) - 1;
+    private static final int X_SHIFT = Y_BITS + XZ_BITS;
+    private static final int Z_SHIFT = Y_BITS;
+
+    private PackedPos() {}
+
+    static long pack(int x, int y, int z) {
+        return ((x & XZ_MASK) << X_SHIFT) | ((z & XZ_MASK) << Z_SHIFT) | (y & Y_MASK);
+    }
+
+    static int x(long p) {
+        return (int) (p >> X_SHIFT);
+    }
+
+    static int y(long p) {
+        return (int) (p << (64 - Y_BITS) >> (64 - Y_BITS));
+    }
+
+    static int z(long p) {
+        return (int) (p << (64 - X_SHIFT) >> (64 - XZ_BITS));
+    }
+
+    static String format(long p) {
+        return x(p) + "," + y(p) + "," + z(p);
+    }
+}
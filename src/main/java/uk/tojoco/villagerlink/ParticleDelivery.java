@@ -0,0 +1,138 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends highlight particles and sounds to each recipient separately instead of
+ * broadcasting through the world. Particle count falls off with distance (full detail
+ * close up, a few particles at the edge of the view range, nothing beyond it), and every
+ * player has a packets-per-second budget: a repeat frame that doesn't fit is skipped
+ * for that player and the effect's next frame tries again, so one busy area can't
+ * flood anybody's connection.
+ * On region-threaded servers each recipient's frame is sent from that player's own
+ * thread, where their position can be read.
+ */
+final class ParticleDelivery implements Listener {
+
+    /** Token bucket refilled continuously at the configured rate, holding at most one second's worth. */
+    private static final class Budget {
+        private double tokens;
+        private long last;
+
+        synchronized boolean take(int packets, double perSecond, boolean force, long now) {
+            tokens = Math.min(perSecond, tokens + (now - last) * perSecond / 1e9);
+            last = now;
+            if (!force && tokens < packets) return false;
+            tokens -= packets; // forced sends may go negative and pay it back later
+            return true;
+        }
+    }
+
+    private final Schedulers schedulers;
+    private final WatchService watch;
+    private final Map<UUID, Budget> budgets = new ConcurrentHashMap<>();
+    private final ThreadLocal<Location> eye = ThreadLocal.withInitial(() -> new Location(null, 0, 0, 0));
+
+    private volatile double viewDistance = 48;
+    private volatile double fullDetailDistance = 16;
+    private volatile int minCount = 3;
+    private volatile double packetsPerSecond = 40;
+    private volatile boolean watchersOnly = false;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder reduced = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    ParticleDelivery(Schedulers schedulers, WatchService watch) {
+        this.schedulers = schedulers;
+        this.watch = watch;
+    }
+
+    void configure(double viewDistance, double fullDetailDistance, int minCount,
+                   double packetsPerSecond, boolean watchersOnly) {
+        this.viewDistance = Math.max(1, viewDistance);
+        this.fullDetailDistance = Math.max(0, Math.min(fullDetailDistance, this.viewDistance));
+        this.minCount = Math.max(1, minCount);
+        this.packetsPerSecond = Math.max(1, packetsPerSecond);
+        this.watchersOnly = watchersOnly;
+    }
+
+    /**
+     * One frame of {@code style} at {@code at} for everyone in range; in watch mode only
+     * watchers receive it. A frame with sound counts as two packets. On a region-threaded
+     * server {@code at} must not be reused afterwards, since frames may be sent later.
+     */
+    void show(Location at, EffectEngine.Style style, boolean withSound) {
+        World w = at.getWorld();
+        if (w == null) return;
+        List<Player> recipients = watchersOnly ? watch.watchers() : w.getPlayers();
+        for (int i = 0, n = recipients.size(); i < n; i++) {
+            Player p = recipients.get(i);
+            if (!schedulers.isRegionized()) {
+                if (p.getWorld() == w) send(p, at, style, withSound, false);
+                continue;
+            }
+            schedulers.onEntity(p, () -> {
+                if (p.isOnline() && p.getWorld() == w) send(p, at, style, withSound, false);
+            });
+        }
+    }
+
+    /** Direct feedback for a player's own action: full detail, always sent, still charged to their budget. */
+    void showTo(Player p, Location at, EffectEngine.Style style, boolean withSound) {
+        send(p, at, style, withSound, true);
+    }
+
+    long sent() { return sent.sum(); }
+    long reduced() { return reduced.sum(); }
+    long throttled() { return throttled.sum(); }
+
+    private void send(Player p, Location at, EffectEngine.Style style, boolean withSound, boolean force) {
+        int count = style.count();
+        if (!force) {
+            Location e = p.getLocation(eye.get());
+            double dx = e.getX() - at.getX(), dy = e.getY() - at.getY(), dz = e.getZ() - at.getZ();
+            double d = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (d > viewDistance) return;
+            int lod = levelOfDetail(count, d);
+            if (lod < count) reduced.increment();
+            count = lod;
+        }
+
+        boolean sound = withSound && style.sound() != null;
+        int packets = sound ? 2 : 1;
+        Budget b = budgets.computeIfAbsent(p.getUniqueId(), id -> new Budget());
+        if (!b.take(packets, packetsPerSecond, force, System.nanoTime())) {
+            throttled.increment();
+            return;
+        }
+
+        p.spawnParticle(style.particle(), at.getX(), at.getY(), at.getZ(), count,
+                style.spreadX(), style.spreadY(), style.spreadZ(), style.extra());
+        if (sound) p.playSound(at, style.sound(), style.volume(), style.pitch());
+        sent.add(packets);
+    }
+
+    /** Linear fall-off from the full count at {@code fullDetailDistance} to {@code minCount} at the view edge. */
+    private int levelOfDetail(int count, double distance) {
+        if (distance <= fullDetailDistance || count <= minCount) return count;
+        double t = (distance - fullDetailDistance) / (viewDistance - fullDetailDistance);
+        return Math.max(minCount, (int) Math.round(count * (1.0 - t)));
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent ev) {
+        budgets.remove(ev.getPlayer().getUniqueId());
+    }
+}
@@ -0,0 +1,209 @@
+package uk.tojoco.villagerlink;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Which villagers claim which bed or workstation, kept up to date from every link the
+ * diff records and every assignment made with the stick. POIs are filed per world and
+ * chunk, so a radius query only touches the POIs near the asker. A POI whose last
+ * claimant moved elsewhere or died stays in the index as orphaned; that is what
+ * {@code /villagerlink audit} reports, together with shared POIs and villagers
+ * without a job site.
+ * Villagers leave the index when they leave the state store (their baseline brings
+ * them back), taking POIs nobody else claims with them, and only the most recent
+ * {@value #MAX_ORPHANS} orphaned POIs are kept, so the index stays bounded.
+ * Synchronized throughout: the async diff, the stick and the command all update it.
+ */
+final class PoiIndex {
+
+    static final byte HOME = 0;
+    static final byte JOB = 1;
+    static final int MAX_ORPHANS = 4096;
+
+    /** One claimed (or formerly claimed) POI. */
+    static final class Poi {
+        final int world;
+        final long pos;
+        byte kind;
+        UUID[] claimants = new UUID[1];
+        int count = 0;
+
+        Poi(int world, long pos, byte kind) {
+            this.world = world;
+            this.pos = pos;
+            this.kind = kind;
+        }
+
+        /** Copy of the current claimants. */
+        List<UUID> claimants() {
+            return List.of(Arrays.copyOf(claimants, count));
+        }
+    }
+
+    /** A villager's current claims; world {@link WorldIds#NONE} means none. */
+    private static final class Links {
+        int homeWorld = WorldIds.NONE;
+        long home;
+        int jobWorld = WorldIds.NONE;
+        long job;
+    }
+
+    private final Map<UUID, Links> byVillager = new HashMap<>();
+    private final Map<Integer, Map<Long, Poi>> byWorld = new HashMap<>();
+    private final Map<Integer, Map<Long, List<Poi>>> byChunk = new HashMap<>();
+    private final Set<UUID> jobless = new HashSet<>();
+    /** Orphaned POIs, oldest first. */
+    private final Set<Poi> orphans = new LinkedHashSet<>();
+
+    synchronized void setHome(UUID villager, int world, long pos) {
+        Links l = byVillager.computeIfAbsent(villager, k -> new Links());
+        if (l.homeWorld == world && l.home == pos) return;
+        release(villager, l.homeWorld, l.home);
+        l.homeWorld = world;
+        l.home = pos;
+        claim(villager, world, pos, HOME);
+    }
+
+    synchronized void setJob(UUID villager, int world, long pos) {
+        Links l = byVillager.computeIfAbsent(villager, k -> new Links());
+        if (l.jobWorld == world && l.job == pos && (world != WorldIds.NONE || jobless.contains(villager))) return;
+        release(villager, l.jobWorld, l.job);
+        l.jobWorld = world;
+        l.job = pos;
+        claim(villager, world, pos, JOB);
+        if (world == WorldIds.NONE) jobless.add(villager);
+        else jobless.remove(villager);
+    }
+
+    /** A villager that is gone for good: its POIs lose it as a claimant. */
+    synchronized void remove(UUID villager) {
+        Links l = byVillager.remove(villager);
+        jobless.remove(villager);
+        if (l == null) return;
+        release(villager, l.homeWorld, l.home);
+        release(villager, l.jobWorld, l.job);
+    }
+
+    /**
+     * A villager that left the state store (unloaded or evicted): it is forgotten, and so
+     * are POIs nobody else claims, since their claimant may well still be around.
+     */
+    synchronized void unload(UUID villager) {
+        Links l = byVillager.remove(villager);
+        jobless.remove(villager);
+        if (l == null) return;
+        Poi home = release(villager, l.homeWorld, l.home);
+        if (home != null && home.count == 0) unindex(home);
+        Poi job = release(villager, l.jobWorld, l.job);
+        if (job != null && job.count == 0) unindex(job);
+    }
+
+    synchronized void clear() {
+        byVillager.clear();
+        byWorld.clear();
+        byChunk.clear();
+        jobless.clear();
+        orphans.clear();
+    }
+
+    /** Drops an orphaned POI whose block turned out to be gone. */
+    synchronized void forget(Poi poi) {
+        if (poi.count == 0) unindex(poi);
+    }
+
+    /**
+     * Every indexed POI within {@code radius} blocks (horizontally) of the given
+     * position; only the chunks in range are looked at.
+     */
+    synchronized void forEachNear(int world, int x, int z, int radius, Consumer<Poi> action) {
+        Map<Long, List<Poi>> chunks = byChunk.get(world);
+        if (chunks == null) return;
+        long r2 = (long) radius * radius;
+        for (int cx = (x - radius) >> 4; cx <= (x + radius) >> 4; cx++) {
+            for (int cz = (z - radius) >> 4; cz <= (z + radius) >> 4; cz++) {
+                List<Poi> list = chunks.get(VillagerRegistry.chunkKey(cx, cz));
+                if (list == null) continue;
+                for (Poi p : list) {
+                    long dx = PackedPos.x(p.pos) - x, dz = PackedPos.z(p.pos) - z;
+                    if (dx * dx + dz * dz <= r2) action.accept(p);
+                }
+            }
+        }
+    }
+
+    /** Current claimants of one POI; empty if nobody claims it. */
+    synchronized List<UUID> claimants(int world, long pos) {
+        Map<Long, Poi> pois = byWorld.get(world);
+        Poi p = pois == null ? null : pois.get(pos);
+        return p == null ? List.of() : p.claimants();
+    }
+
+    /** Whether the villager's last known JOB_SITE is empty. */
+    synchronized boolean isJobless(UUID villager) {
+        return jobless.contains(villager);
+    }
+
+    synchronized int pois() {
+        int n = 0;
+        for (Map<Long, Poi> m : byWorld.values()) n += m.size();
+        return n;
+    }
+
+    // ---- internals ----
+
+    private void claim(UUID villager, int world, long pos, byte kind) {
+        if (world == WorldIds.NONE) return;
+        Map<Long, Poi> pois = byWorld.computeIfAbsent(world, k -> new HashMap<>());
+        Poi p = pois.get(pos);
+        if (p == null) {
+            p = new Poi(world, pos, kind);
+            pois.put(pos, p);
+            byChunk.computeIfAbsent(world, k -> new HashMap<>())
+                    .computeIfAbsent(chunkOf(pos), k -> new ArrayList<>(4)).add(p);
+        }
+        p.kind = kind;
+        if (p.count == 0) orphans.remove(p);
+        if (p.count == p.claimants.length) p.claimants = Arrays.copyOf(p.claimants, p.count * 2);
+        p.claimants[p.count++] = villager;
+    }
+
+    /** Drops the villager's claim on a POI; returns the POI, or null if it isn't indexed. */
+    private Poi release(UUID villager, int world, long pos) {
+        if (world == WorldIds.NONE) return null;
+        Map<Long, Poi> pois = byWorld.get(world);
+        Poi p = pois == null ? null : pois.get(pos);
+        if (p == null) return null;
+        for (int i = 0; i < p.count; i++) {
+            if (p.claimants[i].equals(villager)) {
+                p.claimants[i] = p.claimants[--p.count];
+                p.claimants[p.count] = null;
+                if (p.count == 0) orphan(p);
+                break;
+            }
+        }
+        return p;
+    }
+
+    /** Keeps a POI as orphaned, dropping the oldest orphan past {@link #MAX_ORPHANS}. */
+    private void orphan(Poi p) {
+        orphans.add(p);
+        if (orphans.size() > MAX_ORPHANS) unindex(orphans.iterator().next());
+    }
+
+    private void unindex(Poi p) {
+        orphans.remove(p);
+        Map<Long, Poi> pois = byWorld.get(p.world);
+        if (pois == null || pois.remove(p.pos) == null) return;
+        Map<Long, List<Poi>> chunks = byChunk.get(p.world);
+        List<Poi> list = chunks.get(chunkOf(p.pos));
+        if (list != null) {
+            list.remove(p);
+            if (list.isEmpty()) chunks.remove(chunkOf(p.pos));
+        }
+    }
+
+    private static long chunkOf(long pos) {
+        return VillagerRegistry.chunkKey(PackedPos.x(pos) >> 4, PackedPos.z(pos) >> 4);
+    }
+}
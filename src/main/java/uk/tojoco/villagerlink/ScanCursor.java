@@ -0,0 +1,61 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Villager;
+
+import java.util.List;
+
+/**
+ * Round-robin position across all worlds and their villagers.
+ * Survives between scan runs so a capped scan resumes where the last one stopped
+ * instead of re-checking the first N villagers every time.
+ */
+final class ScanCursor {
+
+    private final VillagerRegistry registry;
+    private int worldIndex = -1;
+    private World current = null;
+    private int position = 0;
+
+    ScanCursor(VillagerRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Next villager to check, or null once every world has been walked through
+     * (the caller stops there for this run; the next call starts the following pass).
+     */
+    Villager next() {
+        while (true) {
+            if (current != null) {
+                // Reads the live registry: villagers added or removed mid-pass are picked up or skipped.
+                Villager v = registry.villagerAt(current, position);
+                if (v != null) {
+                    position++;
+                    return v;
+                }
+            }
+            if (!advanceWorld()) return null;
+        }
+    }
+
+    /** Moves to the next world; returns false (and rewinds) after the last one. */
+    private boolean advanceWorld() {
+        List<World> worlds = Bukkit.getWorlds();
+        worldIndex++;
+        position = 0;
+        if (worldIndex >= worlds.size()) {
+            reset();
+            return false;
+        }
+        current = worlds.get(worldIndex);
+        return true;
+    }
+
+    void reset() {
+        worldIndex = -1;
+        current = null;
+        position = 0;
+    }
+}
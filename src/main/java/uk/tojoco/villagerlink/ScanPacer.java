@@ -0,0 +1,91 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Bukkit;
+
+/**
+ * Decides when the next scan runs and how much it may do, from the server's average
+ * tick time. Above {@code backOffMspt} the interval stretches by half and the per-run
+ * cap and time budget halve; below {@code speedUpMspt} the interval shortens a tick
+ * at a time, back to the configured interval and never past it, and the cap/budget
+ * grow back. In between nothing changes, so the pace doesn't oscillate around a single
+ * threshold. Ticked every server tick, so a reload takes effect on the next tick
+ * without rescheduling anything.
+ */
+final class ScanPacer {
+
+    private volatile boolean adaptive;
+    private volatile int maxInterval;
+    private volatile int maxCap;
+    private volatile int minCap;
+    private volatile long maxBudgetNanos;
+    private volatile double backOffMspt;
+    private volatile double speedUpMspt;
+
+    private volatile int baseInterval;
+    private volatile int interval;
+    /** Fraction of the configured cap and budget currently allowed, in [minCap / maxCap, 1]. */
+    private volatile double share = 1.0;
+    private volatile double lastMspt = Double.NaN;
+    private int sinceLastRun = 0;
+
+    /**
+     * Resets the pace to the configured values. {@code interval} is where it starts and
+     * the fastest it gets, {@code cap} and {@code budgetNanos} are the most a run may
+     * ever get.
+     */
+    void configure(int interval, int cap, long budgetNanos, boolean adaptive,
+                   int maxInterval, int minCap, double backOffMspt, double speedUpMspt) {
+        this.maxCap = Math.max(1, cap);
+        this.minCap = Math.max(1, Math.min(minCap, this.maxCap));
+        this.maxBudgetNanos = Math.max(0L, budgetNanos);
+        this.maxInterval = Math.max(Math.max(1, interval), maxInterval);
+        this.backOffMspt = backOffMspt;
+        this.speedUpMspt = Math.min(speedUpMspt, backOffMspt);
+        this.adaptive = adaptive;
+        this.interval = this.baseInterval = Math.max(1, interval);
+        this.share = 1.0;
+        this.sinceLastRun = 0;
+    }
+
+    /** Call once per tick; true when a scan should run now (the pace is adjusted at that point). */
+    boolean due() {
+        if (++sinceLastRun < interval) return false;
+        sinceLastRun = 0;
+        if (adaptive) adjust(averageTickMillis());
+        return true;
+    }
+
+    int interval() { return interval; }
+    double lastMspt() { return lastMspt; }
+
+    int cap() {
+        return Math.max(minCap, (int) Math.round(maxCap * share));
+    }
+
+    /** 0 means no time budget, as with scan.budget_micros: 0. */
+    long budgetNanos() {
+        return (long) (maxBudgetNanos * share);
+    }
+
+    private void adjust(double mspt) {
+        lastMspt = mspt;
+        if (Double.isNaN(mspt)) return;
+        double minShare = (double) minCap / maxCap;
+        if (mspt >= backOffMspt) {
+            interval = Math.min(maxInterval, Math.max(interval + 1, interval * 3 / 2));
+            share = Math.max(minShare, share * 0.5);
+        } else if (mspt <= speedUpMspt) {
+            interval = Math.max(baseInterval, interval - 1);
+            share = Math.min(1.0, share + 0.125);
+        }
+    }
+
+    /** Paper's rolling average; NaN where the server doesn't provide one (e.g. region-threaded servers). */
+    private static double averageTickMillis() {
+        try {
+            return Bukkit.getAverageTickTime();
+        } catch (RuntimeException | LinkageError e) {
+            return Double.NaN;
+        }
+    }
+}
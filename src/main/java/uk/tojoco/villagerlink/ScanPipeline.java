@@ -0,0 +1,355 @@
+package uk.tojoco.villagerlink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Two-stage scan. The entity-owning thread only copies each villager's HOME/JOB_SITE
+ * into a primitive snapshot buffer ({@link #offer}); {@link #flush} hands the buffer to
+ * an async task that diffs it against the {@link LinkStateStore}, applies cooldowns,
+ * does the debug logging and queues a compact {@link Trigger} per change. The effect
+ * loop drains those on a following tick. A change only counts once consecutive scans
+ * agree on it, and a villager that keeps changing is logged instead of lit up. A
+ * villager the store doesn't know yet starts from its saved {@link BaselineStore}
+ * record when there is one. With {@link #publishChanges} on, each batch's committed
+ * changes (old and new value, empty included) are also queued as one list for the
+ * change events.
+ */
+final class ScanPipeline {
+
+    /** A detected change; a flag is only set when the new memory actually points somewhere. */
+    record Trigger(UUID villager, boolean home, int homeWorld, long homePos,
+                   boolean job, int jobWorld, long jobPos) {
+    }
+
+    /** One committed HOME or JOB_SITE change; world {@link WorldIds#NONE} means empty. */
+    record Change(UUID villager, boolean home, int oldWorld, long oldPos, int newWorld, long newPos) {
+    }
+
+    /** Parallel arrays of villager snapshots, reused between batches. */
+    private static final class Snapshot {
+        UUID[] ids = new UUID[256];
+        int[] homeWorld = new int[256];
+        long[] home = new long[256];
+        int[] jobWorld = new int[256];
+        long[] job = new long[256];
+        int size = 0;
+        long generation;
+
+        void add(UUID id, int hw, long hp, int jw, long jp) {
+            if (size == ids.length) {
+                int n = size * 2;
+                ids = Arrays.copyOf(ids, n);
+                homeWorld = Arrays.copyOf(homeWorld, n);
+                home = Arrays.copyOf(home, n);
+                jobWorld = Arrays.copyOf(jobWorld, n);
+                job = Arrays.copyOf(job, n);
+            }
+            ids[size] = id;
+            homeWorld[size] = hw;
+            home[size] = hp;
+            jobWorld[size] = jw;
+            job[size] = jp;
+            size++;
+        }
+
+        void clear() {
+            Arrays.fill(ids, 0, size, null);
+            size = 0;
+        }
+    }
+
+    private final LinkStateStore states;
+    private final WorldIds worlds;
+    private final Schedulers schedulers;
+    private final Logger log;
+    private final Stats stats;
+    private final BaselineStore baselines;
+    private final PoiIndex claims;
+    /** Only touched by the diff, which never runs twice at once. */
+    private final BaselineStore.Entry restored = new BaselineStore.Entry();
+    /** Changes committed by the batch being diffed; likewise diff-only. */
+    private List<Change> batchChanges;
+
+    private final Queue<Trigger> triggers = new ConcurrentLinkedQueue<>();
+    private final Queue<List<Change>> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean diffRunning = new AtomicBoolean();
+    private Snapshot filling = new Snapshot();
+    private Snapshot spare = new Snapshot();
+    /** Generation of the batch being filled; guarded by this. */
+    private long generation = 0;
+    /**
+     * Villagers evicted since their snapshot may have been taken, with the generation
+     * being filled at the time; guarded by the store's lock.
+     */
+    private final Map<UUID, Long> evicted = new HashMap<>();
+
+    private volatile int cooldownTicks;
+    private volatile int confirmScans = 1;
+    private volatile int flapWindowTicks;
+    private volatile int flapThreshold = Integer.MAX_VALUE;
+    private volatile boolean debug;
+    private volatile boolean publishChanges;
+
+    private volatile long batches = 0;
+    private volatile long diffed = 0;
+    private volatile long lastDiffNanos = 0;
+
+    ScanPipeline(LinkStateStore states, WorldIds worlds, Schedulers schedulers, Logger log, Stats stats,
+                 BaselineStore baselines, PoiIndex claims) {
+        this.states = states;
+        this.worlds = worlds;
+        this.schedulers = schedulers;
+        this.log = log;
+        this.stats = stats;
+        this.baselines = baselines;
+        this.claims = claims;
+    }
+
+    /**
+     * @param confirmScans  consecutive scans a new HOME/JOB_SITE must survive before it counts
+     * @param flapThreshold changes (confirmed, reverted or switched) allowed per
+     *                      {@code flapWindowTicks} before a villager stops being highlighted
+     */
+    void configure(int cooldownTicks, int confirmScans, int flapWindowTicks, int flapThreshold, boolean debug) {
+        this.cooldownTicks = cooldownTicks;
+        this.confirmScans = Math.max(1, Math.min(Byte.MAX_VALUE, confirmScans));
+        this.flapWindowTicks = Math.max(1, flapWindowTicks);
+        this.flapThreshold = flapThreshold <= 0 ? Integer.MAX_VALUE : flapThreshold;
+        this.debug = debug;
+    }
+
+    /** Whether committed changes are queued for {@link #pollChanges}; off by default. */
+    void publishChanges(boolean on) {
+        this.publishChanges = on;
+        if (!on) changes.clear();
+    }
+
+    /** Main-thread stage: record one villager's current memories. */
+    synchronized void offer(UUID id, int homeWorld, long homePos, int jobWorld, long jobPos) {
+        filling.add(id, homeWorld, homePos, jobWorld, jobPos);
+    }
+
+    /**
+     * Sends everything offered so far to the async diff. If the previous batch is still
+     * being diffed, the buffer keeps filling and goes out with the next flush instead.
+     */
+    void flush(int nowTick) {
+        Snapshot batch = takeBatch();
+        if (batch != null) schedulers.async(() -> runDiff(batch, nowTick));
+    }
+
+    /** Runs the diff for everything offered so far on the calling thread (benchmarks). */
+    void diffNow(int nowTick) {
+        Snapshot batch = takeBatch();
+        if (batch != null) runDiff(batch, nowTick);
+    }
+
+    private synchronized Snapshot takeBatch() {
+        if (filling.size == 0 && !diffRunning.get()) {
+            // No snapshot is waiting anywhere, so no eviction needs remembering
+            synchronized (states) {
+                evicted.clear();
+            }
+        }
+        if (filling.size == 0 || !diffRunning.compareAndSet(false, true)) return null;
+        Snapshot batch = filling;
+        batch.generation = generation++;
+        filling = spare;
+        spare = null;
+        return batch;
+    }
+
+    private void runDiff(Snapshot batch, int nowTick) {
+        try {
+            diff(batch, nowTick);
+        } finally {
+            batch.clear();
+            synchronized (this) {
+                spare = batch;
+            }
+            diffRunning.set(false);
+        }
+    }
+
+    /**
+     * Drops a villager that left the world from the store. Snapshots of it that are
+     * still waiting for the diff are ignored, so the diff can't bring it back.
+     */
+    void evict(UUID id) {
+        long g;
+        synchronized (this) {
+            g = generation;
+        }
+        synchronized (states) {
+            states.evict(id);
+            evicted.put(id, g);
+        }
+    }
+
+    /** Next change ready for effects, or null. */
+    Trigger poll() {
+        return triggers.poll();
+    }
+
+    /** Next diffed batch's committed changes, or null. */
+    List<Change> pollChanges() {
+        return changes.poll();
+    }
+
+    void clear() {
+        triggers.clear();
+        changes.clear();
+        synchronized (states) {
+            evicted.clear();
+        }
+        synchronized (this) {
+            filling.clear();
+        }
+    }
+
+    long batches() { return batches; }
+    long diffed() { return diffed; }
+    int pending() { return triggers.size(); }
+    long lastDiffNanos() { return lastDiffNanos; }
+
+    // ---- async stage ----
+
+    private void diff(Snapshot b, int nowTick) {
+        long start = System.nanoTime();
+        batchChanges = null;
+        for (int i = 0; i < b.size; i++) {
+            diffOne(b.ids[i], b.homeWorld[i], b.home[i], b.jobWorld[i], b.job[i], b.generation, nowTick);
+        }
+        synchronized (states) {
+            // Later batches were started after these evictions; their snapshots are current
+            evicted.values().removeIf(g -> g <= b.generation);
+        }
+        if (batchChanges != null) changes.add(batchChanges);
+        lastDiffNanos = System.nanoTime() - start;
+        diffed += b.size;
+        batches++;
+    }
+
+    private void diffOne(UUID id, int homeWorld, long homePos, int jobWorld, long jobPos, long generation, int nowTick) {
+        boolean homeChanged;
+        boolean jobChanged;
+        boolean homeTrigger;
+        boolean jobTrigger;
+        int churn;
+        synchronized (states) {
+            Long gone = evicted.get(id);
+            if (gone != null && gone >= generation) return; // unloaded or died after this snapshot
+            int slot = states.slotOf(id);
+            if (slot < 0 && baselines.load(id, restored)) {
+                // Known from before its unload or the last restart: diff against that
+                slot = states.insert(id, restored.homeWorld, restored.home, restored.jobWorld, restored.job);
+                claims.setHome(id, restored.homeWorld, restored.home);
+                claims.setJob(id, restored.jobWorld, restored.job);
+                stats.baselinesRestored.increment();
+            }
+            if (slot < 0) {
+                // First time we see this villager: record baseline, don't trigger
+                states.insert(id, homeWorld, homePos, jobWorld, jobPos);
+                claims.setHome(id, homeWorld, homePos);
+                claims.setJob(id, jobWorld, jobPos);
+                if (debug) {
+                    log.info("Baseline HOME for " + id + ": " + describe(homeWorld, homePos));
+                    log.info("Baseline JOB for " + id + ": " + describe(jobWorld, jobPos));
+                }
+                return;
+            }
+
+            homeChanged = homeWorld != states.homeWorld(slot) || homePos != states.home(slot);
+            jobChanged = jobWorld != states.jobWorld(slot) || jobPos != states.job(slot);
+            if (!homeChanged && !jobChanged) {
+                if (states.pendingScans(slot) > 0) {
+                    // Went back before the change was confirmed
+                    states.clearPending(slot);
+                    states.noteChurn(slot, nowTick, flapWindowTicks);
+                    stats.revertedUnconfirmed.increment();
+                }
+                return;
+            }
+
+            // Stability: only act once the same new state has been seen on confirmScans scans in a row
+            int seen;
+            if (states.pendingMatches(slot, homeWorld, homePos, jobWorld, jobPos)) {
+                seen = states.confirmPending(slot);
+            } else {
+                if (states.pendingScans(slot) > 0) states.noteChurn(slot, nowTick, flapWindowTicks);
+                states.setPending(slot, homeWorld, homePos, jobWorld, jobPos);
+                seen = 1;
+            }
+            if (seen < confirmScans) {
+                stats.awaitingConfirmation.increment();
+                return;
+            }
+
+            // Cooldown: leave the stored value alone so the change is picked up once it expires
+            if ((long) nowTick - states.lastTrigger(slot) < cooldownTicks) {
+                stats.cooldownSuppressed.increment();
+                return;
+            }
+            states.clearPending(slot);
+            if (publishChanges) {
+                if (batchChanges == null) batchChanges = new ArrayList<>();
+                if (homeChanged) batchChanges.add(new Change(id, true,
+                        states.homeWorld(slot), states.home(slot), homeWorld, homePos));
+                if (jobChanged) batchChanges.add(new Change(id, false,
+                        states.jobWorld(slot), states.job(slot), jobWorld, jobPos));
+            }
+            if (homeChanged) {
+                states.setHome(slot, homeWorld, homePos);
+                claims.setHome(id, homeWorld, homePos);
+            }
+            if (jobChanged) {
+                states.setJob(slot, jobWorld, jobPos);
+                claims.setJob(id, jobWorld, jobPos);
+            }
+            churn = states.noteChurn(slot, nowTick, flapWindowTicks);
+
+            homeTrigger = homeChanged && homeWorld != WorldIds.NONE;
+            jobTrigger = jobChanged && jobWorld != WorldIds.NONE;
+            if (churn > flapThreshold) {
+                // Flapping: keep the baseline current but don't light it up again
+                homeTrigger = jobTrigger = false;
+            }
+            if (homeTrigger || jobTrigger) states.setLastTrigger(slot, nowTick);
+        }
+
+        if (churn > flapThreshold) {
+            stats.flapSuppressed.increment();
+            if (churn == flapThreshold + 1) {
+                log.info("Villager " + id + " keeps changing its links (" + churn + " times within "
+                        + flapWindowTicks + " ticks); not highlighting it until it settles. Now HOME "
+                        + describe(homeWorld, homePos) + ", JOB " + describe(jobWorld, jobPos));
+            }
+        }
+        if (homeTrigger) stats.homeTriggers.increment();
+        if (jobTrigger) stats.jobTriggers.increment();
+        if (homeTrigger || jobTrigger) {
+            // HOME and JOB changes confirmed together go out as one trigger and one highlight
+            triggers.add(new Trigger(id, homeTrigger, homeWorld, homePos, jobTrigger, jobWorld, jobPos));
+        }
+
+        if (debug) {
+            if (homeChanged) log.info("HOME changed for " + id + " → " + describe(homeWorld, homePos));
+            if (jobChanged) log.info("JOB_SITE changed for " + id + " → " + describe(jobWorld, jobPos));
+        }
+    }
+
+    private String describe(int worldId, long pos) {
+        if (worldId == WorldIds.NONE) return "empty";
+        var w = worlds.world(worldId);
+        return (w != null ? w.getName() : "?") + " " + PackedPos.format(pos);
+    }
+}
@@ -0,0 +1,117 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Picks between the classic single-main-thread scheduler and Paper's region schedulers.
+ * On a region-threaded server (Folia) entity and block work has to run on the thread
+ * that owns it; on regular Paper everything stays on the main thread exactly as before.
+ */
+final class Schedulers {
+
+    /** Something that was scheduled and can be stopped again. */
+    interface Handle {
+        void cancel();
+    }
+
+    private final Plugin plugin;
+    private final boolean regionized;
+
+    Schedulers(Plugin plugin) {
+        this.plugin = plugin;
+        this.regionized = detectRegionizedServer();
+    }
+
+    private static boolean detectRegionizedServer() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    boolean isRegionized() {
+        return regionized;
+    }
+
+    /**
+     * Server tick used for cooldowns. Region-threaded servers have no single tick counter,
+     * so there it is wall-clock time in nominal 50 ms ticks.
+     */
+    int currentTick() {
+        return regionized ? (int) (System.nanoTime() / 50_000_000L) : Bukkit.getCurrentTick();
+    }
+
+    /** Repeating task on the main thread, or on the global region thread. */
+    Handle repeating(Runnable task, long delayTicks, long periodTicks) {
+        if (regionized) {
+            var t = Bukkit.getGlobalRegionScheduler()
+                    .runAtFixedRate(plugin, st -> task.run(), Math.max(1L, delayTicks), periodTicks);
+            return t::cancel;
+        }
+        var t = Bukkit.getScheduler().runTaskTimer(plugin, task, delayTicks, periodTicks);
+        return t::cancel;
+    }
+
+    /** Runs on the thread that owns the entity; inline when that is already the current thread. */
+    void onEntity(Entity entity, Runnable task) {
+        if (regionized) {
+            if (Bukkit.isOwnedByCurrentRegion(entity)) task.run();
+            else entity.getScheduler().execute(plugin, task, null, 1L);
+        } else if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    /**
+     * Like {@link #onEntity(Entity, Runnable)}, but runs {@code retired} instead if the entity
+     * is removed before its thread gets to the task, so a caller waiting on it never hangs.
+     */
+    void onEntity(Entity entity, Runnable task, Runnable retired) {
+        if (regionized && !Bukkit.isOwnedByCurrentRegion(entity)) {
+            if (!entity.getScheduler().execute(plugin, task, retired, 1L)) retired.run();
+            return;
+        }
+        onEntity(entity, task);
+    }
+
+    /** Whether the current thread may read the entity right now. */
+    boolean owns(Entity entity) {
+        return regionized ? Bukkit.isOwnedByCurrentRegion(entity) : Bukkit.isPrimaryThread();
+    }
+
+    /** Runs on the thread that owns the entity, on a following tick. */
+    void laterOnEntity(Entity entity, Runnable task) {
+        if (regionized) {
+            entity.getScheduler().execute(plugin, task, null, 1L);
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+
+    /** Runs off the tick threads entirely. */
+    void async(Runnable task) {
+        if (regionized) {
+            Bukkit.getAsyncScheduler().runNow(plugin, st -> task.run());
+        } else {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, task);
+        }
+    }
+
+    /** Runs on the thread that owns the block at {@code loc}. */
+    void atLocation(Location loc, Runnable task) {
+        if (regionized) {
+            Bukkit.getRegionScheduler().execute(plugin, loc, task);
+        } else if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            Bukkit.getScheduler().runTask(plugin, task);
+        }
+    }
+}
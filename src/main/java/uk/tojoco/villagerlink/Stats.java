@@ -0,0 +1,98 @@
+package uk.tojoco.villagerlink;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on counters and a scan-duration histogram. Everything is a LongAdder or an
+ * atomic bucket increment, so recording costs a few nanoseconds on any thread.
+ */
+final class Stats {
+
+    /** Power-of-two nanosecond buckets: bucket b counts durations in [2^(b-1), 2^b). */
+    static final class Histogram {
+        private static final int BUCKETS = 40; // up to ~9 minutes, far beyond any tick
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            int b = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+            counts.incrementAndGet(b);
+            total.increment();
+            sum.add(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        long count() { return total.sum(); }
+        long maxNanos() { return max.get(); }
+
+        long meanNanos() {
+            long n = total.sum();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+
+        /** Upper bound of the bucket holding the given percentile (0..100). */
+        long percentileNanos(double p) {
+            long n = total.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(n * p / 100.0);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += counts.get(b);
+                if (seen >= rank) return b == 0 ? 0 : 1L << b;
+            }
+            return max.get();
+        }
+    }
+
+    final Histogram scanNanos = new Histogram();
+    final LongAdder scans = new LongAdder();
+    final LongAdder visited = new LongAdder();
+    final LongAdder passes = new LongAdder();
+    final LongAdder stoppedByCap = new LongAdder();
+    final LongAdder stoppedByBudget = new LongAdder();
+    final LongAdder homeTriggers = new LongAdder();
+    final LongAdder jobTriggers = new LongAdder();
+    final LongAdder cooldownSuppressed = new LongAdder();
+    final LongAdder baselinesRestored = new LongAdder();
+    final LongAdder awaitingConfirmation = new LongAdder();
+    final LongAdder revertedUnconfirmed = new LongAdder();
+    final LongAdder flapSuppressed = new LongAdder();
+
+    /** Flat name → value view for the periodic dump. */
+    Map<String, Number> snapshot(EffectEngine effects, ParticleDelivery delivery, MemoryDecoder decoder, int loaded) {
+        Map<String, Number> m = new LinkedHashMap<>();
+        m.put("time_ms", System.currentTimeMillis());
+        m.put("loaded_villagers", loaded);
+        m.put("scans", scans.sum());
+        m.put("scan_mean_us", scanNanos.meanNanos() / 1_000.0);
+        m.put("scan_p50_us", scanNanos.percentileNanos(50) / 1_000.0);
+        m.put("scan_p95_us", scanNanos.percentileNanos(95) / 1_000.0);
+        m.put("scan_p99_us", scanNanos.percentileNanos(99) / 1_000.0);
+        m.put("scan_max_us", scanNanos.maxNanos() / 1_000.0);
+        m.put("visited", visited.sum());
+        m.put("passes", passes.sum());
+        m.put("stopped_by_cap", stoppedByCap.sum());
+        m.put("stopped_by_budget", stoppedByBudget.sum());
+        m.put("home_triggers", homeTriggers.sum());
+        m.put("job_triggers", jobTriggers.sum());
+        m.put("cooldown_suppressed", cooldownSuppressed.sum());
+        m.put("baselines_restored", baselinesRestored.sum());
+        m.put("awaiting_confirmation", awaitingConfirmation.sum());
+        m.put("reverted_unconfirmed", revertedUnconfirmed.sum());
+        m.put("flap_suppressed", flapSuppressed.sum());
+        m.put("active_effects", effects.active());
+        m.put("dropped_effects", effects.dropped());
+        m.put("packets_sent", delivery.sent());
+        m.put("frames_reduced", delivery.reduced());
+        m.put("frames_throttled", delivery.throttled());
+        m.put("fallback_decodes", decoder.fallbackDecodes());
+        return m;
+    }
+}
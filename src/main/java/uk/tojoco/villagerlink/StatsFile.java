@@ -0,0 +1,93 @@
+package uk.tojoco.villagerlink;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends {@link Stats} snapshots to stats.csv (header written once) or stats.jsonl
+ * (one JSON object per line) in the plugin data folder. A stats.csv whose header doesn't
+ * match the current columns (written by another version) is moved aside to the first
+ * free stats.N.csv before new rows go in. Call {@link #append} off the tick thread.
+ */
+final class StatsFile {
+
+    private final Path folder;
+    private final Logger log;
+    /** Header of stats.csv as last confirmed on disk; null until checked. */
+    private String csvHeader;
+
+    StatsFile(Path folder, Logger log) {
+        this.folder = folder;
+        this.log = log;
+    }
+
+    synchronized void append(Map<String, Number> row, boolean json) {
+        Path file = folder.resolve(json ? "stats.jsonl" : "stats.csv");
+        try {
+            Files.createDirectories(folder);
+            String header = String.join(",", row.keySet());
+            if (!json && !header.equals(csvHeader)) rotateIfStale(file, header);
+            boolean fresh = Files.notExists(file);
+            try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                if (json) {
+                    w.write(toJson(row));
+                } else {
+                    if (fresh) w.write(header + "\n");
+                    w.write(toCsv(row));
+                }
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Could not write " + file.getFileName(), e);
+        }
+    }
+
+    /** Moves an existing stats.csv aside if its header isn't {@code header}. */
+    private void rotateIfStale(Path file, String header) throws IOException {
+        if (Files.exists(file)) {
+            String first;
+            try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                first = r.readLine();
+            }
+            if (!header.equals(first)) {
+                int n = 1;
+                while (Files.exists(folder.resolve("stats." + n + ".csv"))) n++;
+                Path aside = folder.resolve("stats." + n + ".csv");
+                Files.move(file, aside);
+                log.info("stats.csv columns changed; kept the old file as " + aside.getFileName());
+            }
+        }
+        csvHeader = header;
+    }
+
+    private static String toCsv(Map<String, Number> row) {
+        StringBuilder sb = new StringBuilder();
+        for (Number n : row.values()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(format(n));
+        }
+        return sb.append('\n').toString();
+    }
+
+    private static String toJson(Map<String, Number> row) {
+        StringBuilder sb = new StringBuilder("{");
+        for (Map.Entry<String, Number> e : row.entrySet()) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append('"').append(e.getKey()).append("\":").append(format(e.getValue()));
+        }
+        return sb.append("}\n").toString();
+    }
+
+    private static String format(Number n) {
+        return n instanceof Double d ? String.format(Locale.ROOT, "%.3f", d) : n.toString();
+    }
+}
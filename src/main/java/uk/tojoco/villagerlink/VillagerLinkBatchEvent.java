@@ -0,0 +1,36 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+import java.util.List;
+
+/**
+ * Every HOME / JOB_SITE change one scan confirmed, in one event. Fired after the
+ * individual {@link VillagerLinkChangeEvent}s of the same scan, and only when there
+ * was at least one; listeners that handle changes in bulk can use this instead.
+ */
+public final class VillagerLinkBatchEvent extends Event {
+
+    private static final HandlerList HANDLERS = new HandlerList();
+
+    private final List<VillagerLinkChangeEvent> changes;
+
+    VillagerLinkBatchEvent(List<VillagerLinkChangeEvent> changes) {
+        this.changes = List.copyOf(changes);
+    }
+
+    /** The scan's changes, in the order they were found. */
+    public List<VillagerLinkChangeEvent> getChanges() {
+        return changes;
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return HANDLERS;
+    }
+
+    public static HandlerList getHandlerList() {
+        return HANDLERS;
+    }
+}
@@ -0,0 +1,67 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Villager;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+import java.util.UUID;
+
+/**
+ * A villager's HOME or JOB_SITE memory changed, as confirmed by the scan. Fired on the
+ * tick after the scan's diff finished (the global region thread on Folia), once per
+ * changed memory; a villager that changed both fires two. Informational only: the
+ * villager has already changed its mind, so there is nothing to cancel.
+ */
+public final class VillagerLinkChangeEvent extends Event {
+
+    public enum Kind { HOME, JOB_SITE }
+
+    private static final HandlerList HANDLERS = new HandlerList();
+
+    private final UUID villagerId;
+    private final Villager villager;
+    private final Kind kind;
+    private final Location oldPoi;
+    private final Location newPoi;
+
+    VillagerLinkChangeEvent(UUID villagerId, Villager villager, Kind kind, Location oldPoi, Location newPoi) {
+        this.villagerId = villagerId;
+        this.villager = villager;
+        this.kind = kind;
+        this.oldPoi = oldPoi;
+        this.newPoi = newPoi;
+    }
+
+    public UUID getVillagerId() {
+        return villagerId;
+    }
+
+    /** The villager, or null if it unloaded between the scan and this event. */
+    public Villager getVillager() {
+        return villager;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** Block the memory pointed at before, or null if it was empty. */
+    public Location getOldPoi() {
+        return oldPoi == null ? null : oldPoi.clone();
+    }
+
+    /** Block the memory points at now, or null if the villager lost it. */
+    public Location getNewPoi() {
+        return newPoi == null ? null : newPoi.clone();
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return HANDLERS;
+    }
+
+    public static HandlerList getHandlerList() {
+        return HANDLERS;
+    }
+}
@@ -1,49 +1,69 @@
 package uk.tojoco.villagerlink;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.Material;
 import org.bukkit.Particle;
 import org.bukkit.Sound;
+import org.bukkit.Tag;
 import org.bukkit.World;
+import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.entity.Player;
 import org.bukkit.entity.Villager;
 import org.bukkit.entity.memory.MemoryKey;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicePriority;
 import uk.tojoco.villagerlink.DebugStickListener;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class VillagerLinkHighlighterPlugin extends JavaPlugin {
 
-    private final Map<UUID, Optional<?>> lastHome = new HashMap<>();
-    private final Map<UUID, Optional<?>> lastJob  = new HashMap<>();
-    private final Map<UUID, Long> lastTriggered = new HashMap<>();
+    private static final int MAX_AUDIT_RADIUS = 128;
+    private static final int AUDIT_LINES = 8;
+    private static final int HISTORY_LINES = 10;
+    private static final long JOURNAL_FLUSH_TICKS = 100L;
+    private static final long BASELINE_MAINTAIN_TICKS = 200L;
+    private static final int REFILE_PER_TICK = 128;
+
+    private final LinkStateStore states = new LinkStateStore();
+    private final VillagerRegistry registry = new VillagerRegistry();
+    private final ScanCursor cursor = new ScanCursor(registry);
+    private final Schedulers schedulers = new Schedulers(this);
+    private final WatchService watch = new WatchService(schedulers);
+    private final ParticleDelivery delivery = new ParticleDelivery(schedulers, watch);
+    private final EffectEngine effects = new EffectEngine(schedulers, delivery);
+    private final WorldIds worlds = new WorldIds();
+    private final Stats stats = new Stats();
+    private final ScanPacer pacer = new ScanPacer();
+    private final BaselineStore baselines =
+            new BaselineStore(getDataFolder().toPath().resolve("baselines.dat"), worlds, getLogger());
+    private final PoiIndex claims = new PoiIndex();
+    private final LinkJournal journal = new LinkJournal(getDataFolder().toPath().resolve("history"), worlds, getLogger());
+    private final LinkDisplays displays = new LinkDisplays(this, schedulers, watch, registry, states, worlds);
+    private final ScanPipeline pipeline =
+            new ScanPipeline(states, worlds, schedulers, getLogger(), stats, baselines, claims);
+    private final MemoryDecoder decoder = new MemoryDecoder(worlds);
+    // Per thread: snapshots run on several region threads when the server is region-threaded
+    private final ThreadLocal<MemoryDecoder.Result> decoded = ThreadLocal.withInitial(MemoryDecoder.Result::new);
+    private final List<Villager> interest = new ArrayList<>();
+    private final List<Villager> refile = new ArrayList<>();
+    private int interestOffset = 0;
+    private long scanRun = 0;
+    private Schedulers.Handle statsDumpTask;
+    private DebugStickListener stickListener;
 
     // Config
-    private int scanInterval;
-    private int capPerTick;
-    private int villagerDuration;
-    private int villagerEvery;
-    private Particle villagerParticle;
-    private int villagerCount;
-    private double villagerExtra;
-    private Sound villagerSound;
-    private float villagerSoundVol;
-    private float villagerSoundPitch;
-
-    private int poiDuration;
-    private int poiEvery;
-    private Particle poiParticle;
-    private int poiCount;
-    private double poiExtra;
-    private Sound poiSound;
-    private float poiSoundVol;
-    private float poiSoundPitch;
-
+    private boolean watchMode;
+    private int sampleEvery;
     private int cooldownTicks;
+    private int maxStateEntries;
     private boolean debug;
+    private boolean particleEffects;
+    private int statsDumpSeconds;
+    private boolean statsDumpJson;
 
     @Override
     public void onEnable() {
@@ -58,6 +78,42 @@ public final class VillagerLinkHighlighterPlugin extends JavaPlugin {
                 sender.sendMessage("§aVillagerLinkHighlighter reloaded.");
                 return true;
             }
+            if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+                sendStats(sender);
+                return true;
+            }
+            if (args.length == 1 && args[0].equalsIgnoreCase("watch")) {
+                if (!(sender instanceof org.bukkit.entity.Player p)) {
+                    sender.sendMessage("§cPlayers only.");
+                    return true;
+                }
+                boolean on = watch.toggle(p);
+                p.sendMessage(on
+                        ? "§aWatching villagers within §f" + watch.radius() + " §ablocks."
+                        : "§eStopped watching villagers.");
+                if (on && !watchMode) p.sendMessage("§7(watch.enabled is off, so all villagers are scanned anyway.)");
+                return true;
+            }
+            if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("audit")) {
+                if (!(sender instanceof org.bukkit.entity.Player p)) {
+                    sender.sendMessage("§cPlayers only.");
+                    return true;
+                }
+                int radius = 32;
+                if (args.length == 2) {
+                    try { radius = Integer.parseInt(args[1]); }
+                    catch (NumberFormatException e) {
+                        p.sendMessage("§cRadius must be a number.");
+                        return true;
+                    }
+                }
+                sendAudit(p, Math.max(1, Math.min(MAX_AUDIT_RADIUS, radius)));
+                return true;
+            }
+            if (args.length == 2 && args[0].equalsIgnoreCase("history")) {
+                sendHistory(sender, args[1]);
+                return true;
+            }
             if (args.length == 1 && args[0].equalsIgnoreCase("stick")) {
                 if (!(sender instanceof org.bukkit.entity.Player p)) {
                     sender.sendMessage("§cPlayers only.");
@@ -65,59 +121,435 @@ public final class VillagerLinkHighlighterPlugin extends JavaPlugin {
                 }
                 org.bukkit.inventory.ItemStack stick = DebugStickListener.makeStick();
                 p.getInventory().addItem(stick);
+                stickListener.recheck(p); // may have gone straight into the held slot
                 p.sendMessage("§aGave you a Villager Linker stick.");
                 return true;
             }
-            sender.sendMessage("§eUsage: /villagerlink reload|stick");
+            sender.sendMessage("§eUsage: /villagerlink reload|stick|stats|watch|audit [radius]|history <villager|here>");
             return true;
         });
         
-        PluginManager pm = getServer().getPluginManager();
-        pm.registerEvents(new DebugStickListener(this), this);
+        if (getConfig().getBoolean("state.persist", true)) baselines.open();
+        // Expiry, rehashing and flushing of the baseline table stay off the tick thread
+        schedulers.repeating(() -> schedulers.async(baselines::maintain), BASELINE_MAINTAIN_TICKS, BASELINE_MAINTAIN_TICKS);
+        // Journal files are read and written off the tick thread only
+        schedulers.async(journal::restore);
+        schedulers.repeating(() -> schedulers.async(journal::flush), JOURNAL_FLUSH_TICKS, JOURNAL_FLUSH_TICKS);
 
-        // Repeating scanner
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                scanTick();
-            }
-        }.runTaskTimer(this, scanInterval, scanInterval);
+        PluginManager pm = getServer().getPluginManager();
+        pm.registerEvents(registry, this);
+        states.onEviction(claims::unload); // the index follows the store; baselines bring entries back
+        registry.onRemoval(v -> {
+            persist(v);
+            displays.remove(v.getUniqueId());
+            pipeline.evict(v.getUniqueId());
+        });
+        pm.registerEvents(watch, this);
+        pm.registerEvents(delivery, this);
+        stickListener = new DebugStickListener(this);
+        pm.registerEvents(stickListener, this);
+        if (!schedulers.isRegionized()) {
+            // Region-threaded servers can't read other regions' entities from here;
+            // villagers are registered as their chunks load instead.
+            registry.seed(getServer().getWorlds());
+        }
 
-        getLogger().info("VillagerLinkHighlighter enabled.");
+        // Other plugins get the scan's results instead of polling villagers themselves
+        pipeline.publishChanges(true);
+        getServer().getServicesManager().register(VillagerLinkService.class,
+                new LinkService(states, claims, worlds), this, ServicePriority.Normal);
+
+        // Repeating scanner; runs every tick and lets the pacer decide whether a scan is due
+        schedulers.repeating(this::scanTick, 1L, 1L);
+
+        // Single effect loop for every active highlight, fed by the async diff
+        schedulers.repeating(() -> {
+            applyTriggers();
+            publishChanges();
+            refileSweep();
+            effects.tick();
+            displays.tick();
+        }, 1L, 1L);
+
+        getLogger().info("VillagerLinkHighlighter enabled"
+                + (schedulers.isRegionized() ? " (region-threaded scheduling)." : "."));
     }
 
     @Override
     public void onDisable() {
-        lastHome.clear();
-        lastJob.clear();
-        lastTriggered.clear();
+        getServer().getServicesManager().unregisterAll(this);
+        // Everything still tracked becomes the baseline for the next start
+        baselines.reserve(states.size());
+        states.forEach(baselines::save);
+        baselines.close();
+        journal.flush();
+        journal.close();
+        states.clear();
+        claims.clear();
+        pipeline.clear();
+        effects.clear();
+        displays.clear();
+        cursor.reset();
+        registry.clear();
+    }
+
+    /** Keeps an unloading villager's baseline for when it comes back; a dead one is forgotten. */
+    private void persist(Villager v) {
+        UUID id = v.getUniqueId();
+        if (v.getHealth() <= 0) {
+            baselines.delete(id);
+            claims.remove(id);
+            return;
+        }
+        int hw, jw;
+        long hp, jp;
+        synchronized (states) {
+            int slot = states.slotOf(id);
+            if (slot < 0) return;
+            hw = states.homeWorld(slot);
+            hp = states.home(slot);
+            jw = states.jobWorld(slot);
+            jp = states.job(slot);
+        }
+        baselines.save(id, hw, hp, jw, jp);
+    }
+
+    /** Files a link made with the stick right away instead of waiting for the next scan to see it. */
+    void indexLink(Villager v, boolean home, Location poi) {
+        UUID id = v.getUniqueId();
+        int world = worlds.idOf(poi.getWorld());
+        long pos = PackedPos.pack(poi.getBlockX(), poi.getBlockY(), poi.getBlockZ());
+        if (home) claims.setHome(id, world, pos);
+        else claims.setJob(id, world, pos);
+
+        int oldWorld = WorldIds.NONE;
+        long oldPos = 0;
+        synchronized (states) {
+            int slot = states.slotOf(id);
+            if (slot >= 0) {
+                oldWorld = home ? states.homeWorld(slot) : states.jobWorld(slot);
+                oldPos = home ? states.home(slot) : states.job(slot);
+            }
+        }
+        journal.append(id, home, LinkJournal.STICK, oldWorld, oldPos, world, pos);
+    }
+
+    VillagerRegistry registry() {
+        return registry;
+    }
+
+    LinkStateStore states() {
+        return states;
+    }
+
+    WorldIds worlds() {
+        return worlds;
+    }
+
+    ParticleDelivery delivery() {
+        return delivery;
+    }
+
+    Schedulers schedulers() {
+        return schedulers;
     }
 
     private void loadConfigValues() {
         FileConfiguration c = getConfig();
-        scanInterval = c.getInt("scan.interval_ticks", 10);
-        capPerTick = c.getInt("scan.max_villagers_per_tick", 200);
-
-        villagerParticle = parseParticle(c.getString("effects.villager.particle", "HAPPY_VILLAGER"));
-        villagerCount = c.getInt("effects.villager.count", 30);
-        villagerExtra = c.getDouble("effects.villager.extra", 0.1);
-        villagerDuration = c.getInt("effects.villager.duration_ticks", 60);
-        villagerEvery = c.getInt("effects.villager.every_ticks", 5);
-        villagerSound = parseSound(c.getString("effects.villager.sound", "ENTITY_VILLAGER_YES"));
-        villagerSoundVol = (float) c.getDouble("effects.villager.sound_volume", 0.9);
-        villagerSoundPitch = (float) c.getDouble("effects.villager.sound_pitch", 1.2f);
-
-        poiParticle = parseParticle(c.getString("effects.poi.particle", "ENCHANT"));
-        poiCount = c.getInt("effects.poi.count", 40);
-        poiExtra = c.getDouble("effects.poi.extra", 0.0);
-        poiDuration = c.getInt("effects.poi.duration_ticks", 60);
-        poiEvery = c.getInt("effects.poi.every_ticks", 5);
-        poiSound = parseSound(c.getString("effects.poi.sound", "BLOCK_BEACON_ACTIVATE"));
-        poiSoundVol = (float) c.getDouble("effects.poi.sound_volume", 0.6);
-        poiSoundPitch = (float) c.getDouble("effects.poi.sound_pitch", 1.0f);
+        int scanInterval = c.getInt("scan.interval_ticks", 10);
+        pacer.configure(scanInterval,
+                c.getInt("scan.max_villagers_per_tick", 200),
+                Math.max(0L, c.getLong("scan.budget_micros", 1000L)) * 1_000L,
+                c.getBoolean("scan.adaptive.enabled", true),
+                c.getInt("scan.adaptive.max_interval_ticks", scanInterval * 10),
+                c.getInt("scan.adaptive.min_villagers_per_tick", 20),
+                c.getDouble("scan.adaptive.back_off_mspt", 40.0),
+                c.getDouble("scan.adaptive.speed_up_mspt", 25.0));
+        watchMode = c.getBoolean("watch.enabled", false);
+        watch.setRadius(c.getInt("watch.radius", 48));
+        sampleEvery = Math.max(0, c.getInt("watch.outside_sample_every", 0));
+
+        effects.configure(
+                new EffectEngine.Style(
+                        parseParticle(c.getString("effects.villager.particle", "HAPPY_VILLAGER")),
+                        c.getInt("effects.villager.count", 30),
+                        0.4, 0.7, 0.4,
+                        c.getDouble("effects.villager.extra", 0.1),
+                        c.getInt("effects.villager.duration_ticks", 60),
+                        c.getInt("effects.villager.every_ticks", 5),
+                        parseSound(c.getString("effects.villager.sound", "ENTITY_VILLAGER_YES")),
+                        (float) c.getDouble("effects.villager.sound_volume", 0.9),
+                        (float) c.getDouble("effects.villager.sound_pitch", 1.2f)),
+                new EffectEngine.Style(
+                        parseParticle(c.getString("effects.poi.particle", "ENCHANT")),
+                        c.getInt("effects.poi.count", 40),
+                        0.3, 0.5, 0.3,
+                        c.getDouble("effects.poi.extra", 0.0),
+                        c.getInt("effects.poi.duration_ticks", 60),
+                        c.getInt("effects.poi.every_ticks", 5),
+                        parseSound(c.getString("effects.poi.sound", "BLOCK_BEACON_ACTIVATE")),
+                        (float) c.getDouble("effects.poi.sound_volume", 0.6),
+                        (float) c.getDouble("effects.poi.sound_pitch", 1.0f)),
+                c.getInt("effects.max_concurrent", 256));
+        String mode = c.getString("effects.mode", "particles").toLowerCase(Locale.ROOT);
+        particleEffects = !mode.equals("displays");
+        displays.configure(mode.equals("displays") || mode.equals("both"),
+                c.getInt("effects.displays.max_links", 128),
+                parseMaterial(c.getString("effects.displays.home_line_block", "LIGHT_BLUE_CONCRETE"), Material.LIGHT_BLUE_CONCRETE),
+                parseMaterial(c.getString("effects.displays.job_line_block", "MAGENTA_CONCRETE"), Material.MAGENTA_CONCRETE));
+        delivery.configure(
+                c.getDouble("effects.delivery.view_distance", 48),
+                c.getDouble("effects.delivery.full_detail_distance", 16),
+                c.getInt("effects.delivery.min_count", 3),
+                c.getDouble("effects.delivery.packets_per_second", 40),
+                watchMode);
 
         cooldownTicks = c.getInt("cooldowns.per_villager_ticks", 40);
+        maxStateEntries = c.getInt("state.max_entries", 100000);
+        states.setMaxEntries(maxStateEntries);
+        baselines.configure(c.getInt("state.expire_days", 30));
         debug = c.getBoolean("debug", false);
+        journal.configure(c.getInt("history.entries", 20000),
+                Math.max(1, c.getInt("history.file_max_kb", 1024)) * 1024,
+                c.getInt("history.files", 4));
+        pipeline.configure(cooldownTicks,
+                c.getInt("stability.confirm_scans", 2),
+                c.getInt("stability.flap_window_ticks", 6000),
+                c.getInt("stability.flap_threshold", 3),
+                debug);
+
+        statsDumpSeconds = Math.max(0, c.getInt("stats.dump_interval_seconds", 0));
+        statsDumpJson = c.getString("stats.dump_format", "csv").equalsIgnoreCase("json");
+        scheduleStatsDump();
+    }
+
+    private void scheduleStatsDump() {
+        if (statsDumpTask != null) {
+            statsDumpTask.cancel();
+            statsDumpTask = null;
+        }
+        if (statsDumpSeconds <= 0) return;
+        StatsFile file = new StatsFile(getDataFolder().toPath(), getLogger());
+        long period = statsDumpSeconds * 20L;
+        statsDumpTask = schedulers.repeating(() -> {
+            // Gather on the tick thread (cheap), write off it
+            Map<String, Number> row = stats.snapshot(effects, delivery, decoder, registry.size());
+            boolean json = statsDumpJson;
+            schedulers.async(() -> file.append(row, json));
+        }, period, period);
+    }
+
+    private void sendStats(CommandSender sender) {
+        Stats.Histogram h = stats.scanNanos;
+        double mspt = pacer.lastMspt();
+        sender.sendMessage(String.format(Locale.ROOT,
+                "§aPace: §fevery %d §7ticks, cap §f%d§7, budget §f%d§7 µs (server §f%s§7 mspt)",
+                pacer.interval(), pacer.cap(), pacer.budgetNanos() / 1_000L,
+                Double.isNaN(mspt) ? "?" : String.format(Locale.ROOT, "%.1f", mspt)));
+        sender.sendMessage(String.format(Locale.ROOT,
+                "§aScan: §f%d §7runs, mean §f%.1f§7 µs, p50 §f%.1f§7 / p95 §f%.1f§7 / p99 §f%.1f§7 / max §f%.1f§7 µs",
+                h.count(), h.meanNanos() / 1e3, h.percentileNanos(50) / 1e3, h.percentileNanos(95) / 1e3,
+                h.percentileNanos(99) / 1e3, h.maxNanos() / 1e3));
+        sender.sendMessage(String.format(Locale.ROOT,
+                "§aVisited: §f%d§7, §f%d §7full passes (§f%d §7cap stops, §f%d §7budget stops)",
+                stats.visited.sum(), stats.passes.sum(), stats.stoppedByCap.sum(), stats.stoppedByBudget.sum()));
+        sender.sendMessage(String.format(Locale.ROOT,
+                "§aTriggers: §f%d §7HOME, §f%d §7JOB, §f%d §7held back by cooldown",
+                stats.homeTriggers.sum(), stats.jobTriggers.sum(), stats.cooldownSuppressed.sum()));
+        sender.sendMessage(String.format(Locale.ROOT,
+                "§aStability: §f%d §7scans awaiting confirmation, §f%d §7reverted unconfirmed, §f%d §7flapping changes not shown",
+                stats.awaitingConfirmation.sum(), stats.revertedUnconfirmed.sum(), stats.flapSuppressed.sum()));
+        sender.sendMessage(String.format(Locale.ROOT,
+                "§aState: §f%d §7villagers, §f%d §7slots, §f~%.1f KiB§7, §f%d §7evicted (cap %d)",
+                states.size(), states.capacity(), states.footprintBytes() / 1024.0,
+                states.evictions(), maxStateEntries));
+        sender.sendMessage("§aRegistry: §f" + registry.size() + " §7loaded villagers, §f" + claims.pois() + " §7indexed POIs");
+        sender.sendMessage(String.format(Locale.ROOT,
+                "§aBaselines: §f%d §7saved (§f~%.1f KiB§7 file), §f%d §7restored this session",
+                baselines.size(), baselines.fileBytes() / 1024.0, stats.baselinesRestored.sum()));
+        sender.sendMessage("§aHistory: §f" + journal.size() + " §7records in memory, §f" + journal.appended()
+                + " §7appended this session");
+        sender.sendMessage(String.format(Locale.ROOT,
+                "§aDiff: §f%d §7batches, §f%d §7snapshots, last §f%.2f ms§7, §f%d §7pending triggers",
+                pipeline.batches(), pipeline.diffed(), pipeline.lastDiffNanos() / 1e6, pipeline.pending()));
+        sender.sendMessage("§aDecode: §f" + decoder.typedDecodes() + " §7typed, §f" + decoder.accessorDecodes()
+                + " §7accessor, §f" + decoder.fallbackDecodes() + " §7string fallback, §f"
+                + decoder.failedDecodes() + " §7failed");
+        sender.sendMessage("§aEffects: §f" + effects.active() + " §7active, §f" + effects.started()
+                + " §7started, §f" + effects.merged() + " §7merged, §f" + effects.dropped() + " §7dropped");
+        sender.sendMessage("§aDisplays: §f" + displays.links() + " §7links drawn with display entities");
+        sender.sendMessage("§aPackets: §f" + delivery.sent() + " §7sent, §f" + delivery.reduced()
+                + " §7frames thinned by distance, §f" + delivery.throttled() + " §7held back by budget");
+    }
+
+    /** Shared and orphaned POIs and villagers without a job site around the player, straight from the index. */
+    private void sendAudit(Player p, int radius) {
+        Location at = p.getLocation();
+        World w = at.getWorld();
+        int worldId = worlds.idOf(w);
+        List<String> shared = new ArrayList<>();
+        List<PoiIndex.Poi> orphaned = new ArrayList<>();
+        claims.forEachNear(worldId, at.getBlockX(), at.getBlockZ(), radius, poi -> {
+            if (poi.count > 1) {
+                StringBuilder ids = new StringBuilder();
+                for (UUID id : poi.claimants()) {
+                    if (ids.length() > 0) ids.append("§7, §f");
+                    ids.append(id.toString(), 0, 8);
+                }
+                shared.add("§c" + poiLabel(poi) + " §7claimed by §f" + poi.count + "§7: §f" + ids);
+            } else if (poi.count == 0) {
+                orphaned.add(poi);
+            }
+        });
+
+        // Blocks and villagers are read on the region that owns them; the report goes out
+        // once every read is in (all inline on a regular server)
+        List<String> free = Collections.synchronizedList(new ArrayList<>());
+        List<String> jobless = Collections.synchronizedList(new ArrayList<>());
+        List<Villager> near = new ArrayList<>();
+        for (int cx = (at.getBlockX() - radius) >> 4; cx <= (at.getBlockX() + radius) >> 4; cx++) {
+            for (int cz = (at.getBlockZ() - radius) >> 4; cz <= (at.getBlockZ() + radius) >> 4; cz++) {
+                registry.forEachInChunk(w, cx, cz, v -> {
+                    if (claims.isJobless(v.getUniqueId())) near.add(v);
+                });
+            }
+        }
+        AtomicInteger pending = new AtomicInteger(1 + orphaned.size() + near.size());
+        Runnable done = () -> {
+            if (pending.decrementAndGet() > 0) return;
+            schedulers.onEntity(p, () -> {
+                if (!p.isOnline()) return;
+                p.sendMessage("§aAudit within §f" + radius + " §ablocks: §f" + shared.size() + " §7shared, §f"
+                        + free.size() + " §7orphaned POIs, §f" + jobless.size() + " §7villagers without a job site");
+                sendLines(p, shared);
+                sendLines(p, free);
+                sendLines(p, jobless);
+            });
+        };
+
+        for (PoiIndex.Poi poi : orphaned) {
+            int x = PackedPos.x(poi.pos), y = PackedPos.y(poi.pos), z = PackedPos.z(poi.pos);
+            schedulers.atLocation(new Location(w, x, y, z), () -> {
+                try {
+                    if (w.isChunkLoaded(x >> 4, z >> 4)) {
+                        Material m = w.getBlockAt(x, y, z).getType();
+                        if (!Tag.BEDS.isTagged(m) && !DebugStickListener.WORKSTATIONS.contains(m)) {
+                            claims.forget(poi); // broken or replaced since
+                            return;
+                        }
+                    }
+                    free.add("§e" + poiLabel(poi) + " §7has no villager");
+                } finally {
+                    done.run();
+                }
+            });
+        }
+
+        long r2 = (long) radius * radius;
+        for (Villager v : near) {
+            schedulers.onEntity(v, () -> {
+                try {
+                    if (!v.isValid() || !v.isAdult() || v.getProfession() == Villager.Profession.NITWIT) return;
+                    Location l = v.getLocation();
+                    double dx = l.getX() - at.getX(), dz = l.getZ() - at.getZ();
+                    if (dx * dx + dz * dz > r2) return;
+                    jobless.add("§7Villager §f" + v.getUniqueId().toString().substring(0, 8) + " §7at §f"
+                            + l.getBlockX() + " " + l.getBlockY() + " " + l.getBlockZ()
+                            + " §7(" + v.getProfession().name() + ") has no JOB_SITE");
+                } finally {
+                    done.run();
+                }
+            }, done);
+        }
+        done.run();
+    }
+
+    /** A villager's recorded link changes, newest first, straight from the journal. */
+    private void sendHistory(CommandSender sender, String who) {
+        UUID id;
+        if (who.equalsIgnoreCase("here")) {
+            if (!(sender instanceof Player p)) {
+                sender.sendMessage("§cPlayers only.");
+                return;
+            }
+            Villager v = villagerNear(p);
+            if (v == null) {
+                p.sendMessage("§eLook at a villager, or stand next to one.");
+                return;
+            }
+            id = v.getUniqueId();
+        } else {
+            try {
+                id = UUID.fromString(who);
+            } catch (IllegalArgumentException e) {
+                id = journal.find(who); // the 8-character prefix shown by audit and the stick
+                if (id == null) {
+                    sender.sendMessage("§cNo single villager in the history matches §f" + who + "§c.");
+                    return;
+                }
+            }
+        }
+
+        List<LinkJournal.Record> records = journal.history(id, HISTORY_LINES);
+        if (records.isEmpty()) {
+            sender.sendMessage("§eNo recorded link changes for villager §f" + id.toString().substring(0, 8) + "§e.");
+            return;
+        }
+        sender.sendMessage("§aLink history for villager §f" + id.toString().substring(0, 8)
+                + " §7(newest first):");
+        long now = System.currentTimeMillis();
+        for (LinkJournal.Record r : records) {
+            sender.sendMessage("§7" + ago(now - r.timeMillis()) + " " + (r.home() ? "§bHOME" : "§dJOB_SITE")
+                    + " §f" + describe(r.oldWorld(), r.oldPos()) + " §7→ §f" + describe(r.newWorld(), r.newPos())
+                    + (r.source() == LinkJournal.STICK ? " §8(stick)" : " §8(scan)"));
+        }
+    }
+
+    /**
+     * The villager the player is looking at, or else the nearest one within a few blocks.
+     * Runs on the player's thread and only reads villagers that thread owns.
+     */
+    private Villager villagerNear(Player p) {
+        if (p.getTargetEntity(8) instanceof Villager v) return v;
+        Location at = p.getLocation();
+        Villager[] best = { null };
+        double[] bestSq = { 8 * 8 };
+        for (int cx = (at.getBlockX() >> 4) - 1; cx <= (at.getBlockX() >> 4) + 1; cx++) {
+            for (int cz = (at.getBlockZ() >> 4) - 1; cz <= (at.getBlockZ() >> 4) + 1; cz++) {
+                registry.forEachInChunk(at.getWorld(), cx, cz, v -> {
+                    if (!schedulers.owns(v)) return;
+                    double d = v.getLocation().distanceSquared(at);
+                    if (d < bestSq[0]) {
+                        bestSq[0] = d;
+                        best[0] = v;
+                    }
+                });
+            }
+        }
+        return best[0];
+    }
+
+    private String describe(int worldId, long pos) {
+        if (worldId == WorldIds.NONE) return "empty";
+        World w = worlds.world(worldId);
+        return (w != null ? w.getName() + " " : "") + PackedPos.format(pos);
+    }
+
+    private static String ago(long millis) {
+        long s = Math.max(0, millis / 1000);
+        if (s < 60) return s + "s ago";
+        if (s < 3600) return s / 60 + "m ago";
+        if (s < 86400) return s / 3600 + "h ago";
+        return s / 86400 + "d ago";
+    }
+
+    private static String poiLabel(PoiIndex.Poi poi) {
+        return (poi.kind == PoiIndex.HOME ? "Bed" : "Workstation") + " §f" + PackedPos.format(poi.pos);
+    }
+
+    private static void sendLines(Player p, List<String> lines) {
+        for (int i = 0; i < Math.min(AUDIT_LINES, lines.size()); i++) p.sendMessage(lines.get(i));
+        if (lines.size() > AUDIT_LINES) p.sendMessage("§7… and " + (lines.size() - AUDIT_LINES) + " more");
     }
 
     private Particle parseParticle(String name) {
@@ -125,150 +557,201 @@ public final class VillagerLinkHighlighterPlugin extends JavaPlugin {
         catch (Exception e) { return Particle.HAPPY_VILLAGER; }
     }
 
+    private Material parseMaterial(String name, Material fallback) {
+        Material m = Material.matchMaterial(name);
+        return m != null && m.isBlock() ? m : fallback;
+    }
+
     private Sound parseSound(String name) {
         try { return Sound.valueOf(name.toUpperCase(Locale.ROOT)); }
         catch (Exception e) { return Sound.ENTITY_VILLAGER_YES; }
     }
 
     private void scanTick() {
-        int processed = 0;
-        long nowTick = Bukkit.getCurrentTick();
-
-        for (World world : Bukkit.getWorlds()) {
-            Collection<Villager> villagers = world.getEntitiesByClass(Villager.class);
-            for (Villager v : villagers) {
-                if (processed >= capPerTick) return;
-                processed++;
-
-                UUID id = v.getUniqueId();
-
-                // Cooldown (ensure default is a Long)
-                long last = lastTriggered.getOrDefault(id, -1L * (long) cooldownTicks);
-                if (nowTick - last < cooldownTicks) continue;
-
-                // Read memories; handle both Optional<T> and direct T (e.g., Location)
-                Optional<?> home = readMemory(v, MemoryKey.HOME);
-                Optional<?> job  = readMemory(v, MemoryKey.JOB_SITE);
-
-                boolean changed = false;
-
-                if (!lastHome.containsKey(id)) {
-                    // First time we see this villager: record baseline, don't trigger
-                    lastHome.put(id, home);
-                    if (debug) getLogger().info("Baseline HOME for " + id + ": " + home.map(Object::toString).orElse("empty"));
-                } else if (!Objects.equals(lastHome.get(id), home)) {
-                    if (home.isPresent()) {
-                        Location poiLoc = memoryToLocation(v, home.get());
-                        triggerEffects(v, poiLoc, "HOME");
-                        changed = true;
-                    }
-                    lastHome.put(id, home);
-                    if (debug) getLogger().info("HOME changed for " + id + " → " + home.map(Object::toString).orElse("empty"));
-                }
+        if (!pacer.due()) return;
+        int nowTick = schedulers.currentTick();
+        long start = System.nanoTime();
+        long deadline = start + pacer.budgetNanos();
+
+        if (!watchMode) {
+            scanAll(deadline, 0);
+        } else {
+            // Watch mode: full rate around watchers, everything else only every Nth run (or never)
+            scanRun++;
+            watch.refresh();
+            int processed = watch.hasWatchers() ? scanInterest(deadline) : 0;
+            if (sampleEvery > 0 && scanRun % sampleEvery == 0) {
+                scanAll(deadline, processed);
+            }
+        }
 
-                if (!lastJob.containsKey(id)) {
-                    lastJob.put(id, job);
-                    if (debug) getLogger().info("Baseline JOB for " + id + ": " + job.map(Object::toString).orElse("empty"));
-                } else if (!Objects.equals(lastJob.get(id), job)) {
-                    if (job.isPresent()) {
-                        Location poiLoc = memoryToLocation(v, job.get());
-                        triggerEffects(v, poiLoc, "JOB");
-                        changed = true;
-                    }
-                    lastJob.put(id, job);
-                    if (debug) getLogger().info("JOB_SITE changed for " + id + " → " + job.map(Object::toString).orElse("empty"));
-                }
+        // Snapshots taken so far (on region-threaded servers, by earlier entity tasks) go to the async diff
+        pipeline.flush(nowTick);
 
-                if (changed) {
-                    lastTriggered.put(id, nowTick);
-                }
+        stats.scans.increment();
+        stats.scanNanos.record(System.nanoTime() - start);
+    }
+
+    private void scanAll(long deadline, int processed) {
+        // Resume from where the last run stopped; stop at the count cap, the time budget,
+        // or once the cursor has gone through every world.
+        int visited = 0;
+        while (true) {
+            if (processed >= pacer.cap()) {
+                stats.stoppedByCap.increment();
+                break;
             }
+            if (overBudget(deadline)) {
+                stats.stoppedByBudget.increment();
+                break;
+            }
+
+            Villager v = cursor.next();
+            if (v == null) {
+                stats.passes.increment();
+                break;
+            }
+            if (!v.isValid()) continue;
+            processed++;
+            visited++;
+
+            scanOne(v);
         }
+        stats.visited.add(visited);
     }
 
-    // Normalise Paper's getMemory() output across versions/builds.
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private Optional<?> readMemory(Villager v, MemoryKey<?> key) {
-        Object raw = v.getMemory((MemoryKey) key);      // may be Optional<T> or T
-        if (raw instanceof Optional) return (Optional<?>) raw;
-        return Optional.ofNullable(raw);
+    private int scanInterest(long deadline) {
+        watch.collectVillagers(registry, interest);
+        int n = interest.size();
+        int processed = 0;
+        if (interestOffset >= n) interestOffset = 0;
+        // Rotating start so a capped run still reaches every villager in the area over time
+        while (processed < Math.min(n, pacer.cap()) && !overBudget(deadline)) {
+            Villager v = interest.get(interestOffset);
+            interestOffset = (interestOffset + 1) % n;
+            processed++;
+            if (!v.isValid()) continue;
+            scanOne(v);
+        }
+        stats.visited.add(processed);
+        interest.clear();
+        return processed;
     }
 
     /**
-     * Convert Paper/Mojang memory object into a Location if possible.
-     * Works when Paper returns a Location directly, or falls back to parsing known toString formats.
+     * Re-files a few villagers under their current chunk every tick, whether or not the
+     * scan visits them, so villagers walking into a watcher's area are found there.
      */
-    private Location memoryToLocation(Villager villager, Object memoryVal) {
-        if (memoryVal == null) return null;
+    private void refileSweep() {
+        registry.sweep(REFILE_PER_TICK, refile);
+        for (Villager v : refile) {
+            if (schedulers.isRegionized()) {
+                schedulers.onEntity(v, () -> {
+                    if (v.isValid()) registry.track(v);
+                });
+            } else if (v.isValid()) {
+                registry.track(v);
+            }
+        }
+        refile.clear();
+    }
 
-        if (memoryVal instanceof Location loc) {
-            return loc;
+    /** Checks one villager, on its owning region thread when the server is region-threaded. */
+    private void scanOne(Villager v) {
+        if (schedulers.isRegionized()) {
+            schedulers.onEntity(v, () -> {
+                if (!v.isValid()) return;
+                registry.track(v);
+                snapshot(v);
+            });
+            return;
         }
+        registry.track(v);
+        snapshot(v);
+    }
 
-        // Fallback: attempt parse from strings like "GlobalPos{dimension=minecraft:overworld, pos=(x,y,z)}"
-        try {
-            String s = memoryVal.toString();
-            World w = villager.getWorld();
-            int i = s.indexOf('('), j = s.indexOf(')');
-            if (i >= 0 && j > i) {
-                String[] parts = s.substring(i + 1, j).split(",");
-                if (parts.length >= 3) {
-                    double x = Double.parseDouble(parts[0].trim());
-                    double y = Double.parseDouble(parts[1].trim());
-                    double z = Double.parseDouble(parts[2].trim());
-                    return new Location(w, x + 0.5, y + 0.5, z + 0.5);
-                }
-            }
-        } catch (Exception ignored) {
+    private boolean overBudget(long deadline) {
+        return pacer.budgetNanos() > 0 && System.nanoTime() - deadline >= 0;
+    }
+
+    /** Main-thread half of the scan: read the two memories, nothing else. */
+    private void snapshot(Villager v) {
+        MemoryDecoder.Result r = decoded.get();
+        decoder.decode(v, MemoryKey.HOME, r);
+        int homeWorld = r.world;
+        long homePos = r.pos;
+        decoder.decode(v, MemoryKey.JOB_SITE, r);
+
+        pipeline.offer(v.getUniqueId(), homeWorld, homePos, r.world, r.pos);
+    }
+
+    /** Starts effects for changes the async diff has finished classifying. */
+    private void applyTriggers() {
+        ScanPipeline.Trigger t;
+        while ((t = pipeline.poll()) != null) {
+            Villager v = registry.get(t.villager());
+            if (v == null || !v.isValid()) continue;
+            triggerEffects(v,
+                    t.home() ? blockLocation(t.homeWorld(), t.homePos()) : null,
+                    t.job() ? blockLocation(t.jobWorld(), t.jobPos()) : null,
+                    t.home() && t.job() ? "HOME+JOB" : t.home() ? "HOME" : "JOB");
         }
-        return null;
-    }
-
-    private void triggerEffects(Villager villager, Location poiLoc, String kind) {
-        Location villagerLoc = villager.getLocation().add(0, 1.0, 0);
-
-        // Villager sparkle loop
-        new BukkitRunnable() {
-            int elapsed = 0;
-            @Override
-            public void run() {
-                if (elapsed >= villagerDuration || !villager.isValid()) { cancel(); return; }
-                villager.getWorld().spawnParticle(
-                        villagerParticle,
-                        villagerLoc,
-                        villagerCount,
-                        0.4, 0.7, 0.4,
-                        villagerExtra
-                );
-                if (elapsed == 0 && villagerSound != null) {
-                    villager.getWorld().playSound(villagerLoc, villagerSound, villagerSoundVol, villagerSoundPitch);
-                }
-                elapsed += villagerEvery;
+    }
+
+    /**
+     * Journals every batch the diff finished and fires its change events; one batch
+     * event per scan.
+     */
+    private void publishChanges() {
+        List<ScanPipeline.Change> batch;
+        while ((batch = pipeline.pollChanges()) != null) {
+            for (ScanPipeline.Change c : batch) {
+                journal.appendScan(c.villager(), c.home(), c.oldWorld(), c.oldPos(), c.newWorld(), c.newPos());
             }
-        }.runTaskTimer(this, 0L, villagerEvery);
-
-        // POI sparkle loop (bed/workstation) if we have a location
-        if (poiLoc != null) {
-            Location center = poiLoc.toCenterLocation();
-            new BukkitRunnable() {
-                int elapsed = 0;
-                @Override
-                public void run() {
-                    if (elapsed >= poiDuration) { cancel(); return; }
-                    center.getWorld().spawnParticle(
-                            poiParticle,
-                            center,
-                            poiCount,
-                            0.3, 0.5, 0.3,
-                            poiExtra
-                    );
-                    if (elapsed == 0 && poiSound != null) {
-                        center.getWorld().playSound(center, poiSound, poiSoundVol, poiSoundPitch);
-                    }
-                    elapsed += poiEvery;
-                }
-            }.runTaskTimer(this, 0L, poiEvery);
+            boolean single = VillagerLinkChangeEvent.getHandlerList().getRegisteredListeners().length > 0;
+            boolean bulk = VillagerLinkBatchEvent.getHandlerList().getRegisteredListeners().length > 0;
+            if (!single && !bulk) continue;
+            PluginManager pm = getServer().getPluginManager();
+            List<VillagerLinkChangeEvent> events = new ArrayList<>(batch.size());
+            for (ScanPipeline.Change c : batch) {
+                VillagerLinkChangeEvent e = new VillagerLinkChangeEvent(c.villager(), registry.get(c.villager()),
+                        c.home() ? VillagerLinkChangeEvent.Kind.HOME : VillagerLinkChangeEvent.Kind.JOB_SITE,
+                        blockLocation(c.oldWorld(), c.oldPos()), blockLocation(c.newWorld(), c.newPos()));
+                events.add(e);
+                if (single) pm.callEvent(e);
+            }
+            if (bulk) pm.callEvent(new VillagerLinkBatchEvent(events));
+        }
+    }
+
+    private Location blockLocation(int worldId, long pos) {
+        if (worldId == WorldIds.NONE) return null;
+        World w = worlds.world(worldId);
+        return w == null ? null : new Location(w, PackedPos.x(pos), PackedPos.y(pos), PackedPos.z(pos));
+    }
+
+    /** One highlight per trigger, on the villager's region thread when the server is region-threaded. */
+    private void triggerEffects(Villager villager, Location home, Location job, String kind) {
+        if (schedulers.isRegionized()) {
+            schedulers.onEntity(villager, () -> {
+                if (villager.isValid()) highlight(villager, home, job, kind);
+            });
+            return;
+        }
+        highlight(villager, home, job, kind);
+    }
+
+    /** The villager once, plus each POI that changed; reads the villager's position. */
+    private void highlight(Villager villager, Location home, Location job, String kind) {
+        Location at = villager.getLocation();
+        if (watchMode && !watch.isWatched(at.getWorld(), at.getX(), at.getZ())) return; // nobody debugging here
+
+        if (particleEffects) {
+            effects.highlightVillager(villager);
+            if (home != null) effects.highlightPoi(home);
+            if (job != null) effects.highlightPoi(job);
         }
+        displays.show(villager, home, job);
 
         if (debug) getLogger().info("Triggered " + kind + " highlight for villager " + villager.getUniqueId());
     }
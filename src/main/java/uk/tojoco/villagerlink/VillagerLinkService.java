@@ -0,0 +1,31 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Location;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * What the scan knows, for other plugins; registered with the {@code ServicesManager}
+ * while the plugin is enabled:
+ * <pre>
+ * VillagerLinkService links = Bukkit.getServicesManager().load(VillagerLinkService.class);
+ * </pre>
+ * Answers come from the last confirmed scan, not from the villager entity, so they are
+ * safe to call from any thread. Subscribe to {@link VillagerLinkChangeEvent} or
+ * {@link VillagerLinkBatchEvent} to hear about changes instead of polling these.
+ */
+public interface VillagerLinkService {
+
+    /** Whether the villager is loaded and has been scanned at least once. */
+    boolean isTracked(UUID villager);
+
+    /** The villager's bed as of the last scan, or null if it has none or isn't tracked. */
+    Location getHome(UUID villager);
+
+    /** The villager's workstation as of the last scan, or null if it has none or isn't tracked. */
+    Location getJobSite(UUID villager);
+
+    /** Villagers whose HOME or JOB_SITE is the given block, as far as the scan has seen. */
+    List<UUID> getClaimants(Location poi);
+}
@@ -0,0 +1,231 @@
+package uk.tojoco.villagerlink;
+
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Villager;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Live set of loaded villagers, kept up to date from entity and chunk events so the
+ * scanner and the debug stick never have to sweep every world for them.
+ * Synchronized throughout: on region-threaded servers the events arrive from many threads.
+ * The removal hook runs after the lock is released, so whatever it calls into may lock
+ * in any order against the registry.
+ */
+final class VillagerRegistry implements Listener {
+
+    private final Map<UUID, Villager> byId = new HashMap<>();
+    private final Map<UUID, WorldBucket> byWorld = new HashMap<>();
+    private Consumer<Villager> removalHook = v -> {};
+    private int sweepIndex = 0;
+
+    /** Per-world villagers: a dense list for iteration plus a chunk index. */
+    private static final class WorldBucket {
+        final ArrayList<Villager> list = new ArrayList<>();
+        final Map<UUID, Integer> slot = new HashMap<>();
+        final Map<Long, Set<Villager>> byChunk = new HashMap<>();
+        final Map<UUID, Long> chunkOf = new HashMap<>();
+    }
+
+    /** Picks up villagers that were already loaded before the plugin enabled. */
+    void seed(Collection<World> worlds) {
+        for (World w : worlds) {
+            for (Villager v : w.getEntitiesByClass(Villager.class)) add(v);
+        }
+    }
+
+    /**
+     * Called with the villager whenever it leaves the registry (death, despawn, unload),
+     * outside the registry's lock.
+     */
+    void onRemoval(Consumer<Villager> hook) {
+        this.removalHook = hook;
+    }
+
+    synchronized void clear() {
+        byId.clear();
+        byWorld.clear();
+    }
+
+    synchronized Villager get(UUID id) {
+        return byId.get(id);
+    }
+
+    synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * The index-th villager of a world, or null past the end. Removal swaps the last
+     * villager into the gap, so a walk by index may skip or repeat one villager when the
+     * list changes underneath it; the next pass catches up.
+     */
+    synchronized Villager villagerAt(World world, int index) {
+        WorldBucket b = byWorld.get(world.getUID());
+        return b == null || index >= b.list.size() ? null : b.list.get(index);
+    }
+
+    /**
+     * Villagers last seen in the given chunk. Positions are refreshed by {@link #track},
+     * which the scan and the {@link #sweep} both feed.
+     */
+    synchronized void forEachInChunk(World world, int chunkX, int chunkZ, Consumer<Villager> action) {
+        WorldBucket b = byWorld.get(world.getUID());
+        if (b == null) return;
+        Set<Villager> set = b.byChunk.get(chunkKey(chunkX, chunkZ));
+        if (set != null) set.forEach(action);
+    }
+
+    /** Re-files a villager under its current chunk if it has walked across a border. */
+    synchronized void track(Villager v) {
+        WorldBucket b = byWorld.get(v.getWorld().getUID());
+        if (b == null) return;
+        Long old = b.chunkOf.get(v.getUniqueId());
+        if (old == null) return;
+        long now = chunkKey(v.getLocation());
+        if (old != now) {
+            unindexChunk(b, v, old);
+            indexChunk(b, v, now);
+        }
+    }
+
+    /**
+     * Appends up to {@code max} villagers to {@code out}, carrying on round-robin from
+     * where the previous call stopped, so that calling {@link #track} on each keeps the
+     * chunk index current for villagers the scan doesn't visit.
+     */
+    synchronized void sweep(int max, List<Villager> out) {
+        if (sweepIndex >= byId.size()) sweepIndex = 0;
+        int skip = sweepIndex, added = 0;
+        for (WorldBucket b : byWorld.values()) {
+            if (skip >= b.list.size()) {
+                skip -= b.list.size();
+                continue;
+            }
+            for (int i = skip; i < b.list.size() && added < max; i++, added++) out.add(b.list.get(i));
+            skip = 0;
+            if (added == max) break;
+        }
+        sweepIndex = added < max ? 0 : sweepIndex + added;
+    }
+
+    // ---- events ----
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAdd(EntityAddToWorldEvent ev) {
+        if (ev.getEntity() instanceof Villager v) add(v);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onRemove(EntityRemoveFromWorldEvent ev) {
+        if (ev.getEntity() instanceof Villager v) remove(v);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(EntitiesLoadEvent ev) {
+        for (Entity e : ev.getEntities()) {
+            if (e instanceof Villager v) add(v);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesUnload(EntitiesUnloadEvent ev) {
+        for (Entity e : ev.getEntities()) {
+            if (e instanceof Villager v) remove(v);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(WorldUnloadEvent ev) {
+        List<Villager> gone;
+        synchronized (this) {
+            WorldBucket b = byWorld.remove(ev.getWorld().getUID());
+            if (b == null) return;
+            gone = b.list;
+            for (Villager v : gone) byId.remove(v.getUniqueId());
+        }
+        gone.forEach(removalHook);
+    }
+
+    // ---- bookkeeping ----
+
+    private void add(Villager v) {
+        boolean replaced;
+        Villager prev;
+        synchronized (this) {
+            UUID id = v.getUniqueId();
+            prev = byId.put(id, v);
+            if (prev == v) return;
+            // stale handle for the same entity (e.g. moved worlds)
+            replaced = prev != null && unlink(prev);
+            if (prev != null) byId.put(id, v);
+            WorldBucket b = byWorld.computeIfAbsent(v.getWorld().getUID(), k -> new WorldBucket());
+            b.slot.put(id, b.list.size());
+            b.list.add(v);
+            indexChunk(b, v, chunkKey(v.getLocation()));
+        }
+        if (replaced) removalHook.accept(prev);
+    }
+
+    private void remove(Villager v) {
+        boolean removed;
+        synchronized (this) {
+            removed = unlink(v);
+        }
+        if (removed) removalHook.accept(v);
+    }
+
+    /** Takes the villager out of every index; true if it was there. Caller holds the lock. */
+    private boolean unlink(Villager v) {
+        UUID id = v.getUniqueId();
+        if (byId.get(id) == v) byId.remove(id);
+        for (WorldBucket b : byWorld.values()) {
+            Integer i = b.slot.get(id);
+            if (i == null || b.list.get(i) != v) continue;
+            // Swap-remove keeps removal O(1); the scan cursor tolerates the reorder.
+            Villager last = b.list.remove(b.list.size() - 1);
+            if (last != v) {
+                b.list.set(i, last);
+                b.slot.put(last.getUniqueId(), i);
+            }
+            b.slot.remove(id);
+            Long ck = b.chunkOf.get(id);
+            if (ck != null) unindexChunk(b, v, ck);
+            return true;
+        }
+        return false;
+    }
+
+    private static void indexChunk(WorldBucket b, Villager v, long key) {
+        b.byChunk.computeIfAbsent(key, k -> new HashSet<>()).add(v);
+        b.chunkOf.put(v.getUniqueId(), key);
+    }
+
+    private static void unindexChunk(WorldBucket b, Villager v, long key) {
+        Set<Villager> set = b.byChunk.get(key);
+        if (set != null) {
+            set.remove(v);
+            if (set.isEmpty()) b.byChunk.remove(key);
+        }
+        b.chunkOf.remove(v.getUniqueId());
+    }
+
+    private static long chunkKey(Location loc) {
+        return chunkKey(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+    }
+
+    static long chunkKey(int chunkX, int chunkZ) {
+        return (chunkX & 0xFFFFFFFFL) | ((chunkZ & 0xFFFFFFFFL) << 32);
+    }
+}
@@ -0,0 +1,136 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Villager;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Players who are currently debugging villagers: anyone who toggled /villagerlink watch
+ * or is holding the Villager Linker stick. Each watcher marks a square of chunks around
+ * them as an interest area; in watch mode only villagers inside those areas are
+ * scanned and highlighted.
+ * Positions are read on each player's own thread and kept in a snapshot, so the global
+ * tick never touches a player's location on region-threaded servers.
+ */
+final class WatchService implements Listener {
+
+    /** Where a watcher was when their thread last reported in. */
+    private record Spot(World world, double x, double z) { }
+
+    private final Schedulers schedulers;
+    private final Set<UUID> toggled = ConcurrentHashMap.newKeySet();
+    /** Written by each watcher's own thread, read when the snapshot is rebuilt. */
+    private final Map<UUID, Spot> spots = new ConcurrentHashMap<>();
+    /** Replaced wholesale on refresh so region threads can read them without locking. */
+    private volatile List<Spot> watchers = List.of();
+    private volatile List<Player> players = List.of();
+    private final Set<Villager> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private volatile int radius = 48;
+
+    WatchService(Schedulers schedulers) {
+        this.schedulers = schedulers;
+    }
+
+    void setRadius(int blocks) {
+        this.radius = Math.max(16, blocks);
+    }
+
+    int radius() {
+        return radius;
+    }
+
+    /** Flips /villagerlink watch for the player; returns the new state. */
+    boolean toggle(Player p) {
+        UUID id = p.getUniqueId();
+        if (toggled.remove(id)) return false;
+        toggled.add(id);
+        return true;
+    }
+
+    boolean isToggled(Player p) {
+        return toggled.contains(p.getUniqueId());
+    }
+
+    /**
+     * Rebuilds the watcher snapshot; call once per scan run. Each watcher's position is
+     * refreshed on their own thread: inline on a regular server, in time for the next
+     * run on a region-threaded one.
+     */
+    void refresh() {
+        List<Spot> next = new ArrayList<>();
+        List<Player> nextPlayers = new ArrayList<>();
+        for (Player p : Bukkit.getOnlinePlayers()) {
+            UUID id = p.getUniqueId();
+            if (!toggled.contains(id) && !DebugStickListener.isHoldingStick(p)) {
+                spots.remove(id);
+                continue;
+            }
+            schedulers.onEntity(p, () -> {
+                if (!p.isOnline()) return;
+                Location pl = p.getLocation();
+                spots.put(id, new Spot(pl.getWorld(), pl.getX(), pl.getZ()));
+            });
+            Spot spot = spots.get(id);
+            if (spot == null) continue;
+            next.add(spot);
+            nextPlayers.add(p);
+        }
+        players = nextPlayers.isEmpty() ? List.of() : nextPlayers;
+        watchers = next.isEmpty() ? List.of() : next;
+    }
+
+    boolean hasWatchers() {
+        return !watchers.isEmpty();
+    }
+
+    List<Player> watchers() {
+        return players;
+    }
+
+    /** Whether the position lies inside any watcher's interest area (as of the last refresh). */
+    boolean isWatched(World w, double x, double z) {
+        double r2 = (double) radius * radius;
+        for (Spot s : watchers) {
+            if (s.world() != w) continue;
+            double dx = s.x() - x, dz = s.z() - z;
+            if (dx * dx + dz * dz <= r2) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Appends every registered villager in the chunks around the watchers to {@code out}.
+     * Works from the registry's chunk index, so cost follows the size of the interest
+     * areas rather than the number of loaded villagers.
+     */
+    void collectVillagers(VillagerRegistry registry, List<Villager> out) {
+        int chunkRadius = (radius + 15) >> 4;
+        seen.clear();
+        for (Spot s : watchers) {
+            int pcx = (int) Math.floor(s.x()) >> 4, pcz = (int) Math.floor(s.z()) >> 4;
+            for (int cx = pcx - chunkRadius; cx <= pcx + chunkRadius; cx++) {
+                for (int cz = pcz - chunkRadius; cz <= pcz + chunkRadius; cz++) {
+                    registry.forEachInChunk(s.world(), cx, cz, v -> {
+                        if (seen.add(v)) out.add(v); // overlapping areas
+                    });
+                }
+            }
+        }
+        seen.clear();
+    }
+
+    @EventHandler
+    public void onQuit(PlayerQuitEvent ev) {
+        toggled.remove(ev.getPlayer().getUniqueId());
+        spots.remove(ev.getPlayer().getUniqueId());
+    }
+}
@@ -0,0 +1,49 @@
+package uk.tojoco.villagerlink;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Small int ids for worlds, so positions can be stored as (world id, packed block pos)
+ * primitives. Ids are handed out on first use and stay stable for the session.
+ */
+final class WorldIds {
+
+    /** World id meaning "memory not set". */
+    static final int NONE = -1;
+
+    private final Map<UUID, Integer> ids = new ConcurrentHashMap<>();
+    private final List<UUID> uids = new CopyOnWriteArrayList<>();
+
+    int idOf(World world) {
+        return world == null ? NONE : idOf(world.getUID());
+    }
+
+    /** Id for a world by UUID; it doesn't have to be loaded. */
+    int idOf(UUID uid) {
+        Integer id = ids.get(uid);
+        if (id != null) return id;
+        synchronized (this) {
+            return ids.computeIfAbsent(uid, k -> {
+                uids.add(k);
+                return uids.size() - 1;
+            });
+        }
+    }
+
+    UUID uid(int id) {
+        return id < 0 || id >= uids.size() ? null : uids.get(id);
+    }
+
+    /** The loaded world for an id, or null if it has been unloaded. */
+    World world(int id) {
+        UUID uid = uid(id);
+        return uid == null ? null : Bukkit.getWorld(uid);
+    }
+}